@@ -1,11 +1,16 @@
 package ru.ifmo.ctddev.gafarov.arrayset;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
+    private static final int GALLOP_RATIO = 8;
+
     private List<T> list;
     private Comparator<? super T> comparator;
     private boolean isReversed = false;
+    private EytzingerIndex<T> index;
+    private int offset;
 
     public ArraySet() {
         this(null);
@@ -16,21 +21,309 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
     }
 
     public ArraySet(Collection<T> collection, Comparator<? super T> comparator) {
-        if (collection != null) {
-            Set<T> set = new TreeSet<>(comparator);
-            set.addAll(collection);
-            list = Collections.unmodifiableList(new ArrayList<>(set));
-        } else {
+        this(collection, comparator, collection instanceof SortedSet
+                && Objects.equals(((SortedSet<?>) collection).comparator(), comparator));
+    }
+
+    /**
+     * Creates set of elements of {@code collection}.
+     * If {@code sortedUnique} is set, elements are taken as they are, so construction takes one copy.
+     * Otherwise they are sorted, which is linear for already sorted collection, and equal ones are dropped
+     * in a single pass, the first of them is kept.
+     *
+     * @param collection   elements of set, {@code null} gives empty set
+     * @param comparator   order of elements, {@code null} for natural order
+     * @param sortedUnique whether iteration order of {@code collection} is strictly increasing
+     *                     according to {@code comparator}
+     */
+    @SuppressWarnings("unchecked")
+    public ArraySet(Collection<T> collection, Comparator<? super T> comparator, boolean sortedUnique) {
+        this.comparator = comparator;
+        if (collection == null) {
             list = Collections.unmodifiableList(Collections.emptyList());
+            return;
         }
-        this.comparator = comparator;
+        T[] array = (T[]) collection.toArray();
+        int size = array.length;
+        if (!sortedUnique) {
+            Arrays.sort(array, comparator);
+            size = 0;
+            for (T element : array) {
+                if (size == 0 || compare(array[size - 1], element) != 0) {
+                    array[size++] = element;
+                }
+            }
+        }
+        list = Collections.unmodifiableList(Arrays.asList(size == array.length ? array : Arrays.copyOf(array, size)));
+    }
+
+    /**
+     * Creates set backed by {@code sorted} itself, without copying it.
+     *
+     * @param sorted     unmodifiable random access list, strictly increasing according to {@code comparator}
+     * @param comparator order of elements, {@code null} for natural order
+     * @return set view of {@code sorted}
+     */
+    static <T> ArraySet<T> wrap(List<T> sorted, Comparator<? super T> comparator) {
+        ArraySet<T> set = new ArraySet<>();
+        set.list = sorted;
+        set.comparator = comparator;
+        return set;
+    }
+
+    /**
+     * Returns set with the same elements that searches through {@link EytzingerIndex}.
+     * Index is built once, by this call, and is shared by all views of returned set.
+     * It takes one more array of references and of positions, and pays off for sets that are searched
+     * much more often than they are created. Sets bigger than {@link EytzingerIndex#MAX_SIZE} are not indexed,
+     * as their search time is dominated by reading elements from memory, and plain binary search is as fast.
+     *
+     * @return indexed set
+     */
+    public ArraySet<T> indexed() {
+        ArraySet<T> set = new ArraySet<>();
+        set.list = list;
+        set.comparator = comparator;
+        set.isReversed = isReversed;
+        if (list.size() <= EytzingerIndex.MAX_SIZE) {
+            set.index = new EytzingerIndex<>(list, comparator);
+        }
+        return set;
+    }
+
+    private int search(T t) {
+        if (index == null) {
+            return Collections.binarySearch(list, t, comparator);
+        }
+        int position = index.search(t);
+        if (position >= 0) {
+            position -= offset;
+            if (position >= 0 && position < size()) {
+                return position;
+            }
+            return position < 0 ? -1 : -size() - 1;
+        }
+        position = -position - 1 - offset;
+        return -Math.max(0, Math.min(position, size())) - 1;
     }
 
+    /**
+     * Returns number of elements, that go before {@code t} in order of this set.
+     * Takes one search and doesn't allocate.
+     *
+     * @param t element to rank, it doesn't need to be contained in set
+     * @return number of elements strictly less than {@code t}
+     */
+    public int rank(T t) {
+        return countBefore(t, false);
+    }
+
+    /**
+     * Returns element at position {@code index} in order of this set.
+     *
+     * @param index position of element
+     * @return element, that has rank {@code index}
+     * @throws IndexOutOfBoundsException if {@code index} is out of {@code [0, size())}
+     */
+    public T select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return list.get(isReversed ? size() - 1 - index : index);
+    }
+
+    /**
+     * Counts elements, that {@link #subSet(Object, boolean, Object, boolean)} with the same arguments would contain,
+     * without building the view.
+     *
+     * @param fromElement   low endpoint
+     * @param fromInclusive whether low endpoint is counted
+     * @param toElement     high endpoint
+     * @param toInclusive   whether high endpoint is counted
+     * @return number of elements in range
+     * @throws IllegalArgumentException if {@code fromElement} goes after {@code toElement}
+     */
+    public int countRange(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive) {
+        Objects.requireNonNull(fromElement);
+        Objects.requireNonNull(toElement);
+        if ((isReversed ? -1 : 1) * compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException();
+        }
+        return Math.max(0, countBefore(toElement, toInclusive) - countBefore(fromElement, !fromInclusive));
+    }
+
+    /**
+     * Returns number of elements, that go before {@code t}, or also are equal to it if {@code inclusive} is set,
+     * in order of this set.
+     */
+    private int countBefore(T t, boolean inclusive) {
+        Objects.requireNonNull(t);
+        int index = search(t);
+        int less = index < 0 ? -index - 1 : index;
+        int notGreater = index < 0 ? -index - 1 : index + 1;
+        if (isReversed) {
+            return size() - (inclusive ? less : notGreater);
+        }
+        return inclusive ? notGreater : less;
+    }
+
+    /**
+     * Returns set of elements, that are contained in this set or in {@code other}.
+     *
+     * @param other set to unite with
+     * @return new set in order of this set
+     */
+    public ArraySet<T> union(ArraySet<T> other) {
+        return merge(other, true, true, true);
+    }
+
+    /**
+     * Returns set of elements, that are contained both in this set and in {@code other}.
+     *
+     * @param other set to intersect with
+     * @return new set in order of this set
+     */
+    public ArraySet<T> intersection(ArraySet<T> other) {
+        return merge(other, false, true, false);
+    }
+
+    /**
+     * Returns set of elements of this set, that are not contained in {@code other}.
+     *
+     * @param other set of elements to exclude
+     * @return new set in order of this set
+     */
+    public ArraySet<T> difference(ArraySet<T> other) {
+        return merge(other, true, false, false);
+    }
+
+    /**
+     * Merges backing lists of this and {@code other} set in one pass, keeping elements of the given kinds.
+     * If one list is much longer, runs of it are skipped by {@link #gallop}, so the pass takes
+     * O(m log(n / m)) comparisons. Sets ordered by different comparators are combined by searches instead.
+     */
+    private ArraySet<T> merge(ArraySet<T> other, boolean onlyLeft, boolean both, boolean onlyRight) {
+        List<T> result = new ArrayList<>();
+        if (!Objects.equals(comparator, other.comparator)) {
+            for (T element : list) {
+                if (other.contains(element) ? both : onlyLeft) {
+                    result.add(element);
+                }
+            }
+            if (onlyRight) {
+                result.addAll(other.list);
+            }
+            return ordered(new ArraySet<>(result, comparator));
+        }
+        List<T> a = list;
+        List<T> b = other.list;
+        int i = 0;
+        int j = 0;
+        boolean gallop = a.size() > GALLOP_RATIO * b.size() || b.size() > GALLOP_RATIO * a.size();
+        while (i < a.size() && j < b.size()) {
+            if (gallop) {
+                int next = gallop(a, i, b.get(j));
+                if (onlyLeft) {
+                    result.addAll(a.subList(i, next));
+                }
+                i = next;
+                if (i == a.size()) {
+                    break;
+                }
+                next = gallop(b, j, a.get(i));
+                if (onlyRight) {
+                    result.addAll(b.subList(j, next));
+                }
+                j = next;
+                if (j == b.size()) {
+                    break;
+                }
+            }
+            int cmp = compare(a.get(i), b.get(j));
+            if (cmp < 0) {
+                if (onlyLeft) {
+                    result.add(a.get(i));
+                }
+                i++;
+            } else if (cmp > 0) {
+                if (onlyRight) {
+                    result.add(b.get(j));
+                }
+                j++;
+            } else {
+                if (both) {
+                    result.add(a.get(i));
+                }
+                i++;
+                j++;
+            }
+        }
+        if (onlyLeft) {
+            result.addAll(a.subList(i, a.size()));
+        }
+        if (onlyRight) {
+            result.addAll(b.subList(j, b.size()));
+        }
+        return ordered(new ArraySet<>(result, comparator, true));
+    }
+
+    private ArraySet<T> ordered(ArraySet<T> set) {
+        set.isReversed = isReversed;
+        return set;
+    }
+
+    /**
+     * Returns the first position at or after {@code from}, which element is not less than {@code key},
+     * probing positions {@code from}, {@code from + 1}, {@code from + 3}, ... before binary search.
+     */
+    private int gallop(List<T> list, int from, T key) {
+        int low = from;
+        int high = from;
+        for (int step = 1; high < list.size() && compare(list.get(high), key) < 0; step <<= 1) {
+            low = high + 1;
+            high = Math.min(list.size(), high + step);
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(list.get(mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks, whether every element of {@code collection} is contained in this set.
+     * Set with the same comparator is checked by one galloping pass over both sets.
+     */
+    @Override
+    public boolean containsAll(Collection<?> collection) {
+        if (!(collection instanceof ArraySet) || !Objects.equals(comparator, ((ArraySet<?>) collection).comparator)) {
+            return super.containsAll(collection);
+        }
+        @SuppressWarnings("unchecked")
+        List<T> other = ((ArraySet<T>) collection).list;
+        int position = 0;
+        for (T element : other) {
+            position = gallop(list, position, element);
+            if (position == list.size() || compare(list.get(position), element) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(T a, T b) {
+        return comparator == null ? ((Comparable<? super T>) a).compareTo(b) : comparator.compare(a, b);
+    }
 
     @Override
     public T lower(T t) {
         Objects.requireNonNull(t);
-        int index = Collections.binarySearch(list, t, comparator);
+        int index = search(t);
         if (isReversed) {
             if (index == -size() - 1 || index == size() - 1) {
                 return null;
@@ -47,7 +340,7 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
     @Override
     public T floor(T t) {
         Objects.requireNonNull(t);
-        int index = Collections.binarySearch(list, t, comparator);
+        int index = search(t);
         if (isReversed) {
             if (index == -size() - 1) {
                 return null;
@@ -99,16 +392,108 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
     @SuppressWarnings("unchecked")
     @Override
     public boolean contains(Object o) {
-        return Collections.binarySearch(list, (T) o, comparator) >= 0;
+        return search((T) o) >= 0;
     }
 
     private Iterator<T> getIterator(boolean descending) {
         if (isReversed ^ descending) {
-            return list.listIterator(size() - 1);
+            ListIterator<T> iterator = list.listIterator(size());
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasPrevious();
+                }
+
+                @Override
+                public T next() {
+                    return iterator.previous();
+                }
+            };
         }
         return list.iterator();
     }
 
+    /**
+     * Returns spliterator, that splits range of positions in halves, so parallel streams split evenly.
+     *
+     * @return spliterator reporting {@code SIZED}, {@code SUBSIZED}, {@code SORTED}, {@code DISTINCT},
+     * {@code ORDERED}, {@code NONNULL} and {@code IMMUTABLE}
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RangeSpliterator<>(list, 0, size(), isReversed, comparator());
+    }
+
+    private static class RangeSpliterator<T> implements Spliterator<T> {
+        private final List<T> list;
+        private int from;
+        private int to;
+        private final boolean isReversed;
+        private final Comparator<? super T> comparator;
+
+        RangeSpliterator(List<T> list, int from, int to, boolean isReversed, Comparator<? super T> comparator) {
+            this.list = list;
+            this.from = from;
+            this.to = to;
+            this.isReversed = isReversed;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (from >= to) {
+                return false;
+            }
+            action.accept(list.get(isReversed ? --to : from++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (isReversed) {
+                for (int i = to - 1; i >= from; i--) {
+                    action.accept(list.get(i));
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    action.accept(list.get(i));
+                }
+            }
+            from = to;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (to - from < 2) {
+                return null;
+            }
+            int mid = (from + to) >>> 1;
+            if (isReversed) {
+                Spliterator<T> prefix = new RangeSpliterator<>(list, mid, to, true, comparator);
+                to = mid;
+                return prefix;
+            }
+            Spliterator<T> prefix = new RangeSpliterator<>(list, from, mid, false, comparator);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | SORTED | DISTINCT | ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comparator;
+        }
+    }
+
     @Override
     public Iterator<T> iterator() {
         return getIterator(false);
@@ -119,7 +504,9 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
         ArraySet<T> set = new ArraySet<>();
         set.list = list;
         set.comparator = comparator;
-        set.reverse();
+        set.index = index;
+        set.offset = offset;
+        set.isReversed = !isReversed;
         return set;
     }
 
@@ -137,13 +524,14 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
             T swap = fromElement;
             fromElement = toElement;
             toElement = swap;
+            boolean inclusive = fromInclusive;
+            fromInclusive = toInclusive;
+            toInclusive = inclusive;
         }
-        int from = Collections.binarySearch(list, fromElement, comparator);
-        int to = Collections.binarySearch(list, toElement, comparator);
+        int from = search(fromElement);
+        int to = search(toElement);
         if (from == to && !fromInclusive) {
-            ArraySet<T> set = new ArraySet<>(null, comparator);
-            set.isReversed = isReversed;
-            return set;
+            return empty();
         }
         if (from < 0) {
             from = -from - 1;
@@ -162,16 +550,27 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
             set.list = list.subList(from, to);
             set.isReversed = isReversed;
             set.comparator = comparator;
+            set.index = index;
+            set.offset = offset + from;
         } catch (IndexOutOfBoundsException e) {
             throw new IllegalArgumentException();
         }
         return set;
     }
 
+    /**
+     * Returns empty set in the same order as this one.
+     */
+    private ArraySet<T> empty() {
+        ArraySet<T> set = new ArraySet<>(null, comparator);
+        set.isReversed = isReversed;
+        return set;
+    }
+
     @Override
     public NavigableSet<T> headSet(T toElement, boolean inclusive) {
         if (isEmpty()) {
-            return new ArraySet<>();
+            return empty();
         }
         return subSet(first(), true, toElement, inclusive);
     }
@@ -179,7 +578,7 @@ public class ArraySet<T> extends AbstractSet<T> implements NavigableSet<T> {
     @Override
     public NavigableSet<T> tailSet(T fromElement, boolean inclusive) {
         if (isEmpty()) {
-            return new ArraySet<>();
+            return empty();
         }
         return subSet(fromElement, inclusive, last(), true);
     }
@@ -0,0 +1,300 @@
+package ru.ifmo.ctddev.gafarov.arrayset;
+
+import java.util.*;
+
+/**
+ * Immutable navigable set of {@code int} values in natural order, backed by sorted array.
+ * <p/>
+ * Methods of {@link NavigableSet} box values, primitive {@link #lowerInt}, {@link #floorInt}, {@link #ceilingInt},
+ * {@link #higherInt} and {@link #containsInt} search the array without boxing.
+ * Views share the array with the set they were made of.
+ */
+public class IntArraySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+    private final int[] array;
+    private final int from;
+    private final int to;
+    private final boolean isReversed;
+
+    public IntArraySet() {
+        this(new int[0], 0, 0, false);
+    }
+
+    public IntArraySet(Collection<Integer> collection) {
+        this(collection == null ? new int[0] : collection.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public IntArraySet(int[] values) {
+        array = unique(values.clone());
+        from = 0;
+        to = array.length;
+        isReversed = false;
+    }
+
+    private IntArraySet(int[] array, int from, int to, boolean isReversed) {
+        this.array = array;
+        this.from = from;
+        this.to = to;
+        this.isReversed = isReversed;
+    }
+
+    private static int[] unique(int[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (int value : values) {
+            if (size == 0 || values[size - 1] != value) {
+                values[size++] = value;
+            }
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    private int floorPos(int e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 2 : index;
+    }
+
+    private int lowerPos(int e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 2 : index - 1;
+    }
+
+    private int ceilingPos(int e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private int higherPos(int e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 1 : index + 1;
+    }
+
+    private boolean inRange(int index) {
+        return from <= index && index < to;
+    }
+
+    /**
+     * Returns the greatest element strictly less than {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public int lowerInt(int e, int absent) {
+        int index = isReversed ? higherPos(e) : lowerPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the greatest element less than or equal to {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public int floorInt(int e, int absent) {
+        int index = isReversed ? ceilingPos(e) : floorPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the least element greater than or equal to {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public int ceilingInt(int e, int absent) {
+        int index = isReversed ? floorPos(e) : ceilingPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the least element strictly greater than {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public int higherInt(int e, int absent) {
+        int index = isReversed ? lowerPos(e) : higherPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Checks whether set contains {@code e}.
+     *
+     * @param e value to find
+     * @return {@code true} if set contains {@code e}
+     */
+    public boolean containsInt(int e) {
+        return Arrays.binarySearch(array, from, to, e) >= 0;
+    }
+
+    @Override
+    public Integer lower(Integer e) {
+        int index = isReversed ? higherPos(e) : lowerPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Integer floor(Integer e) {
+        int index = isReversed ? ceilingPos(e) : floorPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Integer ceiling(Integer e) {
+        int index = isReversed ? floorPos(e) : ceilingPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Integer higher(Integer e) {
+        int index = isReversed ? lowerPos(e) : higherPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Integer pollFirst() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Integer pollLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && containsInt((Integer) o);
+    }
+
+    private PrimitiveIterator.OfInt getIterator(boolean descending) {
+        boolean backwards = isReversed ^ descending;
+        return new PrimitiveIterator.OfInt() {
+            private int next = backwards ? to - 1 : from;
+
+            @Override
+            public boolean hasNext() {
+                return backwards ? next >= from : next < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return array[backwards ? next-- : next++];
+            }
+        };
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return getIterator(false);
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt descendingIterator() {
+        return getIterator(true);
+    }
+
+    @Override
+    public IntArraySet descendingSet() {
+        return new IntArraySet(array, from, to, !isReversed);
+    }
+
+    private IntArraySet view(int from, int to) {
+        return new IntArraySet(array, from, Math.max(from, to), isReversed);
+    }
+
+    private int headEnd(int e, boolean inclusive) {
+        return (inclusive ? floorPos(e) : lowerPos(e)) + 1;
+    }
+
+    private int tailStart(int e, boolean inclusive) {
+        return inclusive ? ceilingPos(e) : higherPos(e);
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, boolean fromInclusive, Integer toElement, boolean toInclusive) {
+        int low = isReversed ? toElement : fromElement;
+        int high = isReversed ? fromElement : toElement;
+        if (low > high) {
+            throw new IllegalArgumentException();
+        }
+        return view(tailStart(low, isReversed ? toInclusive : fromInclusive),
+                headEnd(high, isReversed ? fromInclusive : toInclusive));
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement, boolean inclusive) {
+        return isReversed ? view(tailStart(toElement, inclusive), to) : view(from, headEnd(toElement, inclusive));
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement, boolean inclusive) {
+        return isReversed ? view(from, headEnd(fromElement, inclusive)) : view(tailStart(fromElement, inclusive), to);
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return isReversed ? Collections.reverseOrder() : null;
+    }
+
+    @Override
+    public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Integer> headSet(Integer toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Integer> tailSet(Integer fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Returns the first element in order of this set.
+     *
+     * @return the first element
+     * @throws NoSuchElementException if set is empty
+     */
+    public int firstInt() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return isReversed ? array[to - 1] : array[from];
+    }
+
+    /**
+     * Returns the last element in order of this set.
+     *
+     * @return the last element
+     * @throws NoSuchElementException if set is empty
+     */
+    public int lastInt() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return isReversed ? array[from] : array[to - 1];
+    }
+
+    @Override
+    public Integer first() {
+        return firstInt();
+    }
+
+    @Override
+    public Integer last() {
+        return lastInt();
+    }
+}
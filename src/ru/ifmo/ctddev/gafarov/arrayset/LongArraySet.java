@@ -0,0 +1,300 @@
+package ru.ifmo.ctddev.gafarov.arrayset;
+
+import java.util.*;
+
+/**
+ * Immutable navigable set of {@code long} values in natural order, backed by sorted array.
+ * <p/>
+ * Methods of {@link NavigableSet} box values, primitive {@link #lowerLong}, {@link #floorLong}, {@link #ceilingLong},
+ * {@link #higherLong} and {@link #containsLong} search the array without boxing.
+ * Views share the array with the set they were made of.
+ */
+public class LongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+    private final long[] array;
+    private final int from;
+    private final int to;
+    private final boolean isReversed;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0, false);
+    }
+
+    public LongArraySet(Collection<Long> collection) {
+        this(collection == null ? new long[0] : collection.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    public LongArraySet(long[] values) {
+        array = unique(values.clone());
+        from = 0;
+        to = array.length;
+        isReversed = false;
+    }
+
+    private LongArraySet(long[] array, int from, int to, boolean isReversed) {
+        this.array = array;
+        this.from = from;
+        this.to = to;
+        this.isReversed = isReversed;
+    }
+
+    private static long[] unique(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (long value : values) {
+            if (size == 0 || values[size - 1] != value) {
+                values[size++] = value;
+            }
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    private int floorPos(long e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 2 : index;
+    }
+
+    private int lowerPos(long e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 2 : index - 1;
+    }
+
+    private int ceilingPos(long e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private int higherPos(long e) {
+        int index = Arrays.binarySearch(array, from, to, e);
+        return index < 0 ? -index - 1 : index + 1;
+    }
+
+    private boolean inRange(int index) {
+        return from <= index && index < to;
+    }
+
+    /**
+     * Returns the greatest element strictly less than {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public long lowerLong(long e, long absent) {
+        int index = isReversed ? higherPos(e) : lowerPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the greatest element less than or equal to {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public long floorLong(long e, long absent) {
+        int index = isReversed ? ceilingPos(e) : floorPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the least element greater than or equal to {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public long ceilingLong(long e, long absent) {
+        int index = isReversed ? floorPos(e) : ceilingPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Returns the least element strictly greater than {@code e} in order of this set.
+     *
+     * @param e      value to match
+     * @param absent value to return if there is no such element
+     * @return found element or {@code absent}
+     */
+    public long higherLong(long e, long absent) {
+        int index = isReversed ? lowerPos(e) : higherPos(e);
+        return inRange(index) ? array[index] : absent;
+    }
+
+    /**
+     * Checks whether set contains {@code e}.
+     *
+     * @param e value to find
+     * @return {@code true} if set contains {@code e}
+     */
+    public boolean containsLong(long e) {
+        return Arrays.binarySearch(array, from, to, e) >= 0;
+    }
+
+    @Override
+    public Long lower(Long e) {
+        int index = isReversed ? higherPos(e) : lowerPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Long floor(Long e) {
+        int index = isReversed ? ceilingPos(e) : floorPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Long ceiling(Long e) {
+        int index = isReversed ? floorPos(e) : ceilingPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Long higher(Long e) {
+        int index = isReversed ? lowerPos(e) : higherPos(e);
+        return inRange(index) ? array[index] : null;
+    }
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && containsLong((Long) o);
+    }
+
+    private PrimitiveIterator.OfLong getIterator(boolean descending) {
+        boolean backwards = isReversed ^ descending;
+        return new PrimitiveIterator.OfLong() {
+            private int next = backwards ? to - 1 : from;
+
+            @Override
+            public boolean hasNext() {
+                return backwards ? next >= from : next < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return array[backwards ? next-- : next++];
+            }
+        };
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return getIterator(false);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return getIterator(true);
+    }
+
+    @Override
+    public LongArraySet descendingSet() {
+        return new LongArraySet(array, from, to, !isReversed);
+    }
+
+    private LongArraySet view(int from, int to) {
+        return new LongArraySet(array, from, Math.max(from, to), isReversed);
+    }
+
+    private int headEnd(long e, boolean inclusive) {
+        return (inclusive ? floorPos(e) : lowerPos(e)) + 1;
+    }
+
+    private int tailStart(long e, boolean inclusive) {
+        return inclusive ? ceilingPos(e) : higherPos(e);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        long low = isReversed ? toElement : fromElement;
+        long high = isReversed ? fromElement : toElement;
+        if (low > high) {
+            throw new IllegalArgumentException();
+        }
+        return view(tailStart(low, isReversed ? toInclusive : fromInclusive),
+                headEnd(high, isReversed ? fromInclusive : toInclusive));
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement, boolean inclusive) {
+        return isReversed ? view(tailStart(toElement, inclusive), to) : view(from, headEnd(toElement, inclusive));
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement, boolean inclusive) {
+        return isReversed ? view(from, headEnd(fromElement, inclusive)) : view(tailStart(fromElement, inclusive), to);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return isReversed ? Collections.reverseOrder() : null;
+    }
+
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Returns the first element in order of this set.
+     *
+     * @return the first element
+     * @throws NoSuchElementException if set is empty
+     */
+    public long firstLong() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return isReversed ? array[to - 1] : array[from];
+    }
+
+    /**
+     * Returns the last element in order of this set.
+     *
+     * @return the last element
+     * @throws NoSuchElementException if set is empty
+     */
+    public long lastLong() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return isReversed ? array[from] : array[to - 1];
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+}
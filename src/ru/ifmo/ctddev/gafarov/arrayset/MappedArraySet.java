@@ -0,0 +1,237 @@
+package ru.ifmo.ctddev.gafarov.arrayset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * {@link ArraySet} of fixed-width keys, which are stored in a file and are read through memory mapping.
+ * <p/>
+ * Keys are kept off the heap, opening a set maps the file and reads its header only, keys are decoded
+ * when search or iteration reaches them. Keys are either {@code long} values in natural order,
+ * or {@code byte[]} of the same length in unsigned lexicographic order.
+ * <p/>
+ * File format: magic, key width in bytes, number of keys, then keys in increasing order, all big-endian.
+ * Set can hold at most {@link Integer#MAX_VALUE} keys, as positions of {@link ArraySet} are {@code int}.
+ */
+public final class MappedArraySet {
+    private static final int MAGIC = 0x4D415353;
+    private static final int HEADER = 16;
+    private static final int MAX_CHUNK = 1 << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Unsigned lexicographic order of byte arrays.
+     */
+    public static final Comparator<byte[]> UNSIGNED = (a, b) -> {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if (a[i] != b[i]) {
+                return Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    };
+
+    private MappedArraySet() {
+    }
+
+    private static abstract class Keys<T> extends AbstractList<T> implements RandomAccess {
+        private final ByteBuffer[] chunks;
+        private final int perChunk;
+        private final int size;
+        final int width;
+
+        Keys(ByteBuffer[] chunks, int width, int size) {
+            this.chunks = chunks;
+            this.width = width;
+            this.size = size;
+            perChunk = MAX_CHUNK / width;
+        }
+
+        abstract T get(ByteBuffer chunk, int offset);
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return get(chunks[index / perChunk], index % perChunk * width);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static class Longs extends Keys<Long> {
+        Longs(ByteBuffer[] chunks, int size) {
+            super(chunks, Long.BYTES, size);
+        }
+
+        @Override
+        Long get(ByteBuffer chunk, int offset) {
+            return chunk.getLong(offset);
+        }
+    }
+
+    private static class ByteKeys extends Keys<byte[]> {
+        ByteKeys(ByteBuffer[] chunks, int width, int size) {
+            super(chunks, width, size);
+        }
+
+        @Override
+        byte[] get(ByteBuffer chunk, int offset) {
+            byte[] key = new byte[width];
+            for (int i = 0; i < width; i++) {
+                key[i] = chunk.get(offset + i);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Opens set of {@code long} keys written by {@link #writeLongs}.
+     *
+     * @param file file of keys
+     * @return set in natural order
+     * @throws IOException if file couldn't be read or has wrong format
+     */
+    public static ArraySet<Long> openLongs(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = size(channel, header(channel), Long.BYTES);
+            return ArraySet.wrap(new Longs(map(channel, Long.BYTES, size), (int) size), null);
+        }
+    }
+
+    /**
+     * Opens set of byte array keys written by {@link #writeKeys}.
+     *
+     * @param file file of keys
+     * @return set in {@link #UNSIGNED} order
+     * @throws IOException if file couldn't be read or has wrong format
+     */
+    public static ArraySet<byte[]> openKeys(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = header(channel);
+            int width = header.getInt(4);
+            long size = size(channel, header, width);
+            return ArraySet.wrap(new ByteKeys(map(channel, width, size), width, (int) size), UNSIGNED);
+        }
+    }
+
+    private static ByteBuffer header(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Truncated header");
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a key file");
+        }
+        return header;
+    }
+
+    private static long size(FileChannel channel, ByteBuffer header, int width) throws IOException {
+        long size = header.getLong(8);
+        if (header.getInt(4) != width || width <= 0 || width > BUFFER_SIZE) {
+            throw new IOException("Unexpected key width " + header.getInt(4));
+        }
+        if (size < 0 || size > Integer.MAX_VALUE || channel.size() < HEADER + size * width) {
+            throw new IOException("Unexpected number of keys " + size);
+        }
+        return size;
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, int width, long size) throws IOException {
+        long perChunk = MAX_CHUNK / width;
+        ByteBuffer[] chunks = new ByteBuffer[(int) ((size + perChunk - 1) / perChunk)];
+        for (int i = 0; i < chunks.length; i++) {
+            long first = i * perChunk;
+            long length = Math.min(perChunk, size - first) * width;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * width, length);
+        }
+        return chunks;
+    }
+
+    /**
+     * Writes strictly increasing {@code long} keys to {@code file}.
+     *
+     * @param file   file to write
+     * @param sorted keys in increasing order
+     * @throws IOException              if file couldn't be written
+     * @throws IllegalArgumentException if keys are not strictly increasing
+     */
+    public static void writeLongs(Path file, LongStream sorted) throws IOException {
+        write(file, Long.BYTES, sorted.boxed(), (buffer, key) -> buffer.putLong(key), Long::compare);
+    }
+
+    /**
+     * Writes strictly increasing in {@link #UNSIGNED} order keys of length {@code width} to {@code file}.
+     *
+     * @param file   file to write
+     * @param width  length of every key
+     * @param sorted keys in increasing order
+     * @throws IOException              if file couldn't be written
+     * @throws IllegalArgumentException if some key has other length or keys are not strictly increasing
+     */
+    public static void writeKeys(Path file, int width, Stream<byte[]> sorted) throws IOException {
+        if (width <= 0 || width > BUFFER_SIZE) {
+            throw new IllegalArgumentException("Unsupported key width " + width);
+        }
+        write(file, width, sorted, (buffer, key) -> {
+            if (key.length != width) {
+                throw new IllegalArgumentException("Key of length " + key.length + ", expected " + width);
+            }
+            buffer.put(key);
+        }, UNSIGNED);
+    }
+
+    private interface Encoder<T> {
+        void put(ByteBuffer buffer, T key);
+    }
+
+    private static <T> void write(Path file, int width, Stream<T> sorted, Encoder<T> encoder,
+                                  Comparator<? super T> comparator) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - BUFFER_SIZE % width);
+            channel.position(HEADER);
+            long size = 0;
+            T previous = null;
+            for (Iterator<T> keys = sorted.iterator(); keys.hasNext(); size++) {
+                T key = keys.next();
+                if (previous != null && comparator.compare(previous, key) >= 0) {
+                    throw new IllegalArgumentException("Keys are not strictly increasing at " + size);
+                }
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                encoder.put(buffer, key);
+                previous = key;
+            }
+            drain(channel, buffer);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many keys: " + size);
+            }
+            buffer.putInt(MAGIC).putInt(width).putLong(size).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
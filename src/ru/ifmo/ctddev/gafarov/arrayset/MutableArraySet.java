@@ -0,0 +1,345 @@
+package ru.ifmo.ctddev.gafarov.arrayset;
+
+import java.util.*;
+
+/**
+ * Mutable set, that keeps its elements in {@link ArraySet} and collects changes in small sorted buffers.
+ * <p/>
+ * Added elements and removed elements of the array are kept apart from it, and are merged into a new array
+ * in one linear pass when buffers grow to about square root of the size.
+ * Writers are synchronized, {@link #snapshot()} gives immutable set, that is navigated without any locks
+ * and doesn't see later changes. Snapshot taken while there are pending changes is a view of the array
+ * and of copies of the buffers, so reads between writes don't merge the whole array.
+ *
+ * @param <T> type of elements
+ */
+public class MutableArraySet<T> extends AbstractSet<T> {
+    private static final int MIN_BUFFER = 64;
+
+    private final Comparator<? super T> comparator;
+    private ArraySet<T> base;
+    private final List<T> added = new ArrayList<>();
+    private final List<T> removed = new ArrayList<>();
+    private volatile ArraySet<T> snapshot;
+
+    public MutableArraySet() {
+        this(null);
+    }
+
+    public MutableArraySet(Comparator<? super T> comparator) {
+        this(Collections.emptyList(), comparator);
+    }
+
+    public MutableArraySet(Collection<T> collection, Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        base = new ArraySet<>(collection, comparator);
+        snapshot = base;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(T a, T b) {
+        return comparator == null ? ((Comparable<? super T>) a).compareTo(b) : comparator.compare(a, b);
+    }
+
+    private int find(List<T> buffer, T t) {
+        return Collections.binarySearch(buffer, t, comparator);
+    }
+
+    /**
+     * Sorted list of elements of the array without removed ones and with added ones.
+     * Element is found by its index with binary searches over positions of buffered elements,
+     * that are computed once, in {@code O(k log n)} for {@code k} buffered elements:
+     * {@code addedAt} are positions of added elements in this list, {@code removedAt} are indices of removed
+     * elements in the array, and {@code kept[j]} is number of elements kept before the {@code j}-th removed one.
+     */
+    private static class Overlay<T> extends AbstractList<T> implements RandomAccess {
+        private final ArraySet<T> base;
+        private final Object[] added;
+        private final int[] addedAt;
+        private final int[] removedAt;
+        private final int[] kept;
+
+        Overlay(ArraySet<T> base, List<T> added, List<T> removed) {
+            this.base = base;
+            this.added = added.toArray();
+            removedAt = new int[removed.size()];
+            kept = new int[removed.size()];
+            for (int j = 0; j < removedAt.length; j++) {
+                removedAt[j] = base.rank(removed.get(j));
+                kept[j] = removedAt[j] - j;
+            }
+            addedAt = new int[this.added.length];
+            for (int j = 0; j < addedAt.length; j++) {
+                int rank = base.rank(added.get(j));
+                addedAt[j] = rank - count(removedAt, rank - 1) + j;
+            }
+        }
+
+        /**
+         * Returns number of elements of non-decreasing {@code array}, that are not greater than {@code key}.
+         */
+        private static int count(int[] array, int key) {
+            int l = 0;
+            int r = array.length;
+            while (l < r) {
+                int m = (l + r) >>> 1;
+                if (array[m] <= key) {
+                    l = m + 1;
+                } else {
+                    r = m;
+                }
+            }
+            return l;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            int before = count(addedAt, index - 1);
+            if (before < addedAt.length && addedAt[before] == index) {
+                return (T) added[before];
+            }
+            int rest = index - before;
+            return base.select(rest + count(kept, rest));
+        }
+
+        @Override
+        public int size() {
+            return base.size() + addedAt.length - removedAt.length;
+        }
+    }
+
+    /**
+     * Returns immutable set of current elements.
+     * If there are pending changes, set is a view of the array and of copies of the buffers,
+     * the last snapshot is returned without locking until the next change.
+     *
+     * @return snapshot of this set
+     */
+    public ArraySet<T> snapshot() {
+        ArraySet<T> set = snapshot;
+        if (set != null) {
+            return set;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = ArraySet.wrap(new Overlay<>(base, added, removed), comparator);
+            }
+            return snapshot;
+        }
+    }
+
+    private void merge() {
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            base = new ArraySet<>(merge(base, added, removed), comparator, true);
+            added.clear();
+            removed.clear();
+        }
+        snapshot = base;
+    }
+
+    /**
+     * Merges two strictly increasing sequences, dropping elements of {@code minus}.
+     * Elements of {@code minus} have to be contained in {@code a}.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> merge(Collection<T> a, Collection<T> b, List<T> minus) {
+        Object[] result = new Object[a.size() + b.size() - minus.size()];
+        Iterator<T> i = a.iterator();
+        Iterator<T> j = b.iterator();
+        T x = i.hasNext() ? i.next() : null;
+        T y = j.hasNext() ? j.next() : null;
+        int m = 0;
+        int size = 0;
+        while (x != null || y != null) {
+            int cmp = x == null ? 1 : y == null ? -1 : compare(x, y);
+            if (cmp <= 0) {
+                if (m < minus.size() && compare(x, minus.get(m)) == 0) {
+                    m++;
+                } else {
+                    result[size++] = x;
+                }
+                x = i.hasNext() ? i.next() : null;
+                if (cmp == 0) {
+                    y = j.hasNext() ? j.next() : null;
+                }
+            } else {
+                result[size++] = y;
+                y = j.hasNext() ? j.next() : null;
+            }
+        }
+        return Arrays.asList((T[]) (size == result.length ? result : Arrays.copyOf(result, size)));
+    }
+
+    private void changed() {
+        snapshot = null;
+        if (added.size() + removed.size() >= Math.max(MIN_BUFFER, (int) Math.sqrt(base.size()))) {
+            merge();
+        }
+    }
+
+    @Override
+    public synchronized boolean add(T t) {
+        Objects.requireNonNull(t);
+        if (base.contains(t)) {
+            int index = find(removed, t);
+            if (index < 0) {
+                return false;
+            }
+            removed.remove(index);
+        } else {
+            int index = find(added, t);
+            if (index >= 0) {
+                return false;
+            }
+            added.add(-index - 1, t);
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * Adds all elements of {@code collection}.
+     * Big collections are sorted on their own and merged into the array at once.
+     *
+     * @param collection elements to add
+     * @return {@code true} if set has changed
+     */
+    @Override
+    public synchronized boolean addAll(Collection<? extends T> collection) {
+        if (collection.size() < Math.max(MIN_BUFFER, (int) Math.sqrt(base.size()))) {
+            return super.addAll(collection);
+        }
+        int size = size();
+        merge();
+        @SuppressWarnings("unchecked")
+        ArraySet<T> batch = new ArraySet<>((Collection<T>) collection, comparator);
+        base = new ArraySet<>(merge(base, batch, Collections.emptyList()), comparator, true);
+        snapshot = base;
+        return size() != size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized boolean remove(Object o) {
+        T t = (T) o;
+        if (base.contains(t)) {
+            int index = find(removed, t);
+            if (index >= 0) {
+                return false;
+            }
+            removed.add(-index - 1, t);
+        } else {
+            int index = find(added, t);
+            if (index < 0) {
+                return false;
+            }
+            added.remove(index);
+        }
+        changed();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized boolean contains(Object o) {
+        T t = (T) o;
+        if (base.contains(t)) {
+            return find(removed, t) < 0;
+        }
+        return find(added, t) >= 0;
+    }
+
+    @Override
+    public synchronized int size() {
+        return base.size() + added.size() - removed.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        base = new ArraySet<>(null, comparator);
+        added.clear();
+        removed.clear();
+        snapshot = base;
+    }
+
+    private T edge(boolean last) {
+        T element = base.isEmpty() ? null : last ? base.last() : base.first();
+        while (element != null && find(removed, element) >= 0) {
+            element = last ? base.lower(element) : base.higher(element);
+        }
+        if (added.isEmpty()) {
+            return element;
+        }
+        T extra = added.get(last ? added.size() - 1 : 0);
+        if (element == null) {
+            return extra;
+        }
+        return (compare(element, extra) < 0) ^ last ? element : extra;
+    }
+
+    /**
+     * Retrieves and removes the least element.
+     *
+     * @return removed element or {@code null} if set is empty
+     */
+    public synchronized T pollFirst() {
+        T first = edge(false);
+        if (first != null) {
+            remove(first);
+        }
+        return first;
+    }
+
+    /**
+     * Retrieves and removes the greatest element.
+     *
+     * @return removed element or {@code null} if set is empty
+     */
+    public synchronized T pollLast() {
+        T last = edge(true);
+        if (last != null) {
+            remove(last);
+        }
+        return last;
+    }
+
+    /**
+     * Returns iterator over snapshot of this set. Its {@code remove} removes element from this set.
+     *
+     * @return iterator in order of elements
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> iterator = snapshot().iterator();
+        return new Iterator<T>() {
+            private T last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return last = iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                MutableArraySet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+}
@@ -0,0 +1,419 @@
+package ru.ifmo.ctddev.gafarov.concurrent;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * Parallel aggregations over arrays of {@code int}, {@code long} and {@code double}.
+ * <p/>
+ * Arrays are split and scheduled by {@link IterativeParallelism}, every chunk is processed by a plain counted
+ * loop over the array without boxing, results of chunks are combined in order of positions.
+ */
+public class ArrayParallelism {
+    private final IterativeParallelism parallelism;
+
+    /**
+     * Creates instance, that runs chunks on threads of default {@link IterativeParallelism}.
+     */
+    public ArrayParallelism() {
+        this(new IterativeParallelism());
+    }
+
+    /**
+     * Creates instance, that runs chunks the same way as {@code parallelism} does.
+     *
+     * @param parallelism source of threads and threshold
+     */
+    public ArrayParallelism(IterativeParallelism parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns sum of elements, overflow wraps around.
+     *
+     * @param threads number of threads
+     * @param array   elements to sum
+     * @return sum of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public long sum(int threads, int[] array) throws InterruptedException {
+        long sum = 0;
+        for (long piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            long s = 0;
+            for (int i = from; i < to; i++) {
+                s += array[i];
+            }
+            return s;
+        })) {
+            sum += piece;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns sum of elements, overflow wraps around.
+     *
+     * @param threads number of threads
+     * @param array   elements to sum
+     * @return sum of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public long sum(int threads, long[] array) throws InterruptedException {
+        long sum = 0;
+        for (long piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            long s = 0;
+            for (int i = from; i < to; i++) {
+                s += array[i];
+            }
+            return s;
+        })) {
+            sum += piece;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns sum of elements. Elements are added in other order than by sequential loop,
+     * so result can differ from it by rounding.
+     *
+     * @param threads number of threads
+     * @param array   elements to sum
+     * @return sum of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public double sum(int threads, double[] array) throws InterruptedException {
+        double sum = 0;
+        for (double piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            double s = 0;
+            for (int i = from; i < to; i++) {
+                s += array[i];
+            }
+            return s;
+        })) {
+            sum += piece;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns position of the first maximal element.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of maximum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int maxIndex(int threads, int[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (array[i] > array[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> array[j] > array[i]);
+    }
+
+    /**
+     * Returns position of the first minimal element.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of minimum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int minIndex(int threads, int[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (array[i] < array[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> array[j] < array[i]);
+    }
+
+    /**
+     * Returns position of the first maximal element.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of maximum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int maxIndex(int threads, long[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (array[i] > array[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> array[j] > array[i]);
+    }
+
+    /**
+     * Returns position of the first minimal element.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of minimum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int minIndex(int threads, long[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (array[i] < array[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> array[j] < array[i]);
+    }
+
+    /**
+     * Returns position of the first maximal element in order of {@link Double#compare}, so {@code NaN} is
+     * greater than any other value.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of maximum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int maxIndex(int threads, double[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (Double.compare(array[i], array[best]) > 0) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> Double.compare(array[j], array[i]) > 0);
+    }
+
+    /**
+     * Returns position of the first minimal element in order of {@link Double#compare},
+     * so {@code -0.0} is less than {@code 0.0}.
+     *
+     * @param threads number of threads
+     * @param array   elements to search
+     * @return position of minimum
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if array is empty
+     */
+    public int minIndex(int threads, double[] array) throws InterruptedException {
+        return best(parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (Double.compare(array[i], array[best]) < 0) {
+                    best = i;
+                }
+            }
+            return best;
+        }), (i, j) -> Double.compare(array[j], array[i]) < 0);
+    }
+
+    private interface Better {
+        boolean test(int current, int candidate);
+    }
+
+    private static int best(List<Integer> pieces, Better better) {
+        if (pieces.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        int best = pieces.get(0);
+        for (int piece : pieces) {
+            if (better.test(best, piece)) {
+                best = piece;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Counts elements satisfying {@code predicate}.
+     *
+     * @param threads   number of threads
+     * @param array     elements to check
+     * @param predicate predicate to check to
+     * @return number of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public int countIf(int threads, int[] array, IntPredicate predicate) throws InterruptedException {
+        int count = 0;
+        for (int piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int c = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(array[i])) {
+                    c++;
+                }
+            }
+            return c;
+        })) {
+            count += piece;
+        }
+        return count;
+    }
+
+    /**
+     * Counts elements satisfying {@code predicate}.
+     *
+     * @param threads   number of threads
+     * @param array     elements to check
+     * @param predicate predicate to check to
+     * @return number of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public int countIf(int threads, long[] array, LongPredicate predicate) throws InterruptedException {
+        int count = 0;
+        for (int piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int c = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(array[i])) {
+                    c++;
+                }
+            }
+            return c;
+        })) {
+            count += piece;
+        }
+        return count;
+    }
+
+    /**
+     * Counts elements satisfying {@code predicate}.
+     *
+     * @param threads   number of threads
+     * @param array     elements to check
+     * @param predicate predicate to check to
+     * @return number of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public int countIf(int threads, double[] array, DoublePredicate predicate) throws InterruptedException {
+        int count = 0;
+        for (int piece : parallelism.runRanges(array.length, threads, null, (from, to) -> {
+            int c = 0;
+            for (int i = from; i < to; i++) {
+                if (predicate.test(array[i])) {
+                    c++;
+                }
+            }
+            return c;
+        })) {
+            count += piece;
+        }
+        return count;
+    }
+
+    /**
+     * Counts elements in {@code buckets} ranges of equal width, that cover {@code [low, high)}.
+     * Elements out of {@code [low, high)} are not counted.
+     *
+     * @param threads number of threads
+     * @param array   elements to count
+     * @param low     the least counted value
+     * @param high    the least value greater than counted ones
+     * @param buckets number of buckets
+     * @return counts of elements in buckets
+     * @throws InterruptedException     if calling thread is interrupted
+     * @throws IllegalArgumentException if {@code low >= high} or {@code buckets <= 0}
+     */
+    public int[] histogram(int threads, int[] array, int low, int high, int buckets) throws InterruptedException {
+        check(low < high, buckets);
+        long width = (long) high - low;
+        return histogram(threads, array.length, buckets, (from, to, counts) -> {
+            for (int i = from; i < to; i++) {
+                if (array[i] >= low && array[i] < high) {
+                    counts[(int) (((long) array[i] - low) * buckets / width)]++;
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts elements in {@code buckets} ranges of equal width, that cover {@code [low, high)}.
+     * Elements out of {@code [low, high)} are not counted.
+     *
+     * @param threads number of threads
+     * @param array   elements to count
+     * @param low     the least counted value
+     * @param high    the least value greater than counted ones
+     * @param buckets number of buckets
+     * @return counts of elements in buckets
+     * @throws InterruptedException     if calling thread is interrupted
+     * @throws IllegalArgumentException if {@code low >= high} or {@code buckets <= 0}
+     */
+    public int[] histogram(int threads, long[] array, long low, long high, int buckets) throws InterruptedException {
+        check(low < high, buckets);
+        double scale = buckets / ((double) high - low);
+        return histogram(threads, array.length, buckets, (from, to, counts) -> {
+            for (int i = from; i < to; i++) {
+                if (array[i] >= low && array[i] < high) {
+                    counts[Math.min(buckets - 1, (int) (((double) array[i] - low) * scale))]++;
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts elements in {@code buckets} ranges of equal width, that cover {@code [low, high)}.
+     * Elements out of {@code [low, high)} and {@code NaN} are not counted.
+     *
+     * @param threads number of threads
+     * @param array   elements to count
+     * @param low     the least counted value
+     * @param high    the least value greater than counted ones
+     * @param buckets number of buckets
+     * @return counts of elements in buckets
+     * @throws InterruptedException     if calling thread is interrupted
+     * @throws IllegalArgumentException if {@code low >= high} or {@code buckets <= 0}
+     */
+    public int[] histogram(int threads, double[] array, double low, double high, int buckets) throws InterruptedException {
+        check(low < high, buckets);
+        double scale = buckets / (high - low);
+        return histogram(threads, array.length, buckets, (from, to, counts) -> {
+            for (int i = from; i < to; i++) {
+                if (array[i] >= low && array[i] < high) {
+                    counts[Math.min(buckets - 1, (int) ((array[i] - low) * scale))]++;
+                }
+            }
+        });
+    }
+
+    private interface Counter {
+        void count(int from, int to, int[] counts);
+    }
+
+    private static void check(boolean ordered, int buckets) {
+        if (!ordered || buckets <= 0) {
+            throw new IllegalArgumentException("Empty range or " + buckets + " buckets");
+        }
+    }
+
+    private int[] histogram(int threads, int size, int buckets, Counter counter) throws InterruptedException {
+        int[] histogram = new int[buckets];
+        for (int[] piece : parallelism.runRanges(size, threads, null, (from, to) -> {
+            int[] counts = new int[buckets];
+            counter.count(from, to, counts);
+            return counts;
+        })) {
+            for (int i = 0; i < buckets; i++) {
+                histogram[i] += piece[i];
+            }
+        }
+        return histogram;
+    }
+}
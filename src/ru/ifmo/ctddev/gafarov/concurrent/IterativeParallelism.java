@@ -2,13 +2,22 @@ package ru.ifmo.ctddev.gafarov.concurrent;
 
 import info.kgeorgiy.java.advanced.concurrent.ListIP;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.ToLongFunction;
 
 /**
  * Class designed to parallel calculations on lists.
@@ -16,54 +25,167 @@ import java.util.stream.Collectors;
  * @see info.kgeorgiy.java.advanced.concurrent.ListIP
  */
 public class IterativeParallelism implements ListIP {
-    private static class RunOnList<T, R> implements Runnable {
-        private Function<List<? extends T>, R> function;
-        private List<? extends T> list;
-        private R result;
-
-        public RunOnList(List<? extends T> list, Function<List<? extends T>, R> function) {
-            this.function = function;
-            this.list = list;
-        }
+    private static final int CHUNKS_PER_WORKER = 8;
 
-        @Override
-        public void run() {
-            result = function.apply(list);
-        }
+    private static final ExecutorService SHARED = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "IterativeParallelism worker");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-        public R getResult() {
-            return result;
-        }
+    private final ExecutorService executor;
+    private final int threshold;
+
+    /**
+     * Function of range {@code [from, to)} of list positions.
+     *
+     * @param <R> type of result
+     */
+    interface RangeFunction<R> {
+        R apply(int from, int to);
     }
 
-    private <T> List<List<? extends T>> split(List<? extends T> list, int n) {
-        List<List<? extends T>> pieces = new ArrayList<>(n);
-        double step = Math.max(list.size() / (double) n, 1);
+    /**
+     * Returns {@code list} itself, if it has fast positional access, or its copy otherwise,
+     * so that ranges of a linked list are not looked for from its head every time.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<? extends T> randomAccess(List<? extends T> list) {
+        return list instanceof RandomAccess ? list : (List<? extends T>) Arrays.asList(list.toArray());
+    }
 
-        int from = 0;
-        for (double to = step; from < list.size(); to += step) {
-            int ito = (int) Math.floor(to);
-            pieces.add(list.subList(from, Math.min(ito, list.size())));
-            from = ito;
+    /**
+     * Runs {@code function} on ranges covering positions {@code [0, size)}.
+     * <p/>
+     * Up to {@code n} workers are used, so that every worker gets at least {@link #threshold} positions,
+     * or at least {@link #threshold} of total cost, if costs are given:
+     * the calling thread and the others started on {@link #executor}. Positions are cut into
+     * {@link #CHUNKS_PER_WORKER} times more chunks than workers, and every worker takes the next free chunk
+     * when it has finished the previous one, so the worker, that got expensive elements, doesn't hold back
+     * the others. The calling thread waits only for chunks, that have been taken, workers, that haven't started
+     * by then, are cancelled, so a busy executor doesn't delay the result.
+     *
+     * @param costs prefix sums of costs of elements, chunks get equal total costs; or {@code null} for equal sizes
+     * @return results of chunks in order of positions, empty list if {@code size} is zero
+     */
+    @SuppressWarnings("unchecked")
+    <R> List<R> runRanges(int size, int n, long[] costs, RangeFunction<R> function) throws InterruptedException {
+        long total = costs == null || costs[size] == 0 ? size : costs[size];
+        int workers = size == 0 ? 0 : (int) Math.max(1, Math.min(n, total / threshold));
+        if (workers < 2) {
+            return workers == 0 ? Collections.emptyList() : Collections.singletonList(function.apply(0, size));
+        }
+        int chunks = Math.min(size, workers * CHUNKS_PER_WORKER);
+        int[] bounds = new int[chunks + 1];
+        for (int i = 1; i < chunks; i++) {
+            bounds[i] = costs == null || costs[size] == 0 ? (int) ((long) size * i / chunks) : bound(costs, i, chunks);
+        }
+        bounds[chunks] = size;
+        Object[] results = new Object[chunks];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(chunks);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < chunks; i = next.getAndIncrement()) {
+                try {
+                    results[i] = function.apply(bounds[i], bounds[i + 1]);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                    for (int rest = chunks - Math.min(chunks, next.getAndSet(chunks)); rest > 0; rest--) {
+                        done.countDown();
+                    }
+                }
+                done.countDown();
+            }
+        };
+        List<Future<?>> futures = new ArrayList<>(workers - 1);
+        try {
+            for (int i = 1; i < workers; i++) {
+                futures.add(executor.submit(worker));
+            }
+            worker.run();
+            done.await();
+        } finally {
+            next.set(chunks);
+            futures.forEach(future -> future.cancel(true));
+        }
+        Throwable e = error.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
         }
-        return pieces;
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        if (e != null) {
+            throw new IllegalStateException(e);
+        }
+        return (List<R>) Arrays.asList(results);
     }
 
-    private <T, R> List<R> runPieces(List<? extends T> list, int n, Function<List<? extends T>, R> function) throws InterruptedException {
-        List<RunOnList<T, R>> runOnLists = split(list, n).stream().map(t -> new RunOnList<>(t, function)).collect(Collectors.toList());
-        List<Thread> threads = runOnLists.stream().map(Thread::new).collect(Collectors.toList());
-        threads.forEach(Thread::start);
-        for (Thread t : threads) {
-            t.join();
+    /**
+     * Returns the first position, before which elements cost at least {@code i / chunks} of total cost.
+     */
+    private static int bound(long[] costs, int i, int chunks) {
+        long target = (long) ((double) costs[costs.length - 1] * i / chunks);
+        int low = 0;
+        int high = costs.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (costs[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        return runOnLists.stream().map(RunOnList::getResult).collect(Collectors.toList());
+        return low;
     }
 
     /**
-     * Creates instance
+     * Creates instance, that runs pieces on threads shared by all instances
+     * and uses as many threads as methods are given, however short the list is.
      */
     public IterativeParallelism() {
+        this(SHARED, 1);
+    }
 
+    /**
+     * Creates instance, that runs pieces on {@code executor}.
+     * Number of threads passed to methods limits number of pieces, every piece gets at least
+     * {@code threshold} elements, so short lists are processed on the calling thread only.
+     *
+     * @param executor  executor to run pieces on
+     * @param threshold minimal number of elements in one piece
+     */
+    public IterativeParallelism(ExecutorService executor, int threshold) {
+        this.executor = executor;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Starts lazy pipeline over {@code list}, which stages are run by one parallel pass of this instance.
+     *
+     * @param list source list
+     * @param <T>  type that describes elements of given list
+     * @return pipeline without stages
+     */
+    public <T> Pipeline<T> pipeline(List<? extends T> list) {
+        return new Pipeline<>(this, list, null, Function.identity(), false);
+    }
+
+    /**
+     * Starts lazy pipeline over {@code list}, which splits it into pieces of equal total cost instead of equal size.
+     * Costs are computed once per terminal operation, before the parallel pass.
+     * Threshold of this instance is then minimal cost of one piece, so short lists of expensive elements
+     * are processed by all threads.
+     *
+     * @param list source list
+     * @param cost estimated cost of processing element, non-negative
+     * @param <T>  type that describes elements of given list
+     * @return pipeline without stages
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Pipeline<T> pipeline(List<? extends T> list, ToLongFunction<? super T> cost) {
+        return new Pipeline<>(this, list, (ToLongFunction<Object>) cost, Function.identity(), false);
     }
 
     /**
@@ -78,12 +200,62 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public String join(int i, List<?> list) throws InterruptedException {
-        Function<List<?>, StringBuilder> toStringList = t -> {
-            StringBuilder builder = new StringBuilder();
-            t.stream().forEach(el -> builder.append(el.toString()));
-            return builder;
-        };
-        return runPieces(list, i, toStringList).stream().reduce((n1, n2) -> n1.append(n2)).get().toString();
+        return join(i, list, null).toString();
+    }
+
+    /**
+     * Joins string representations of list into {@code buffer}.
+     * Elements are converted to strings in parallel, then total length is known, and strings are copied
+     * in parallel to their places in one array, without any regrowth. If {@code buffer} is long enough,
+     * it is used as this array, so the array returned by previous call can be reused.
+     *
+     * @param i      number of threads
+     * @param list   list of elements to describe
+     * @param buffer array to join to, or {@code null}
+     * @return joined characters, backed by {@code buffer} or by new array
+     * @throws InterruptedException if any of threads has interrupted
+     * @throws OutOfMemoryError     if joined length exceeds maximal array length
+     */
+    public CharBuffer join(int i, List<?> list, char[] buffer) throws InterruptedException {
+        List<?> elements = randomAccess(list);
+        String[] strings = new String[elements.size()];
+        List<long[]> chunks = runRanges(elements.size(), i, null, (from, to) -> {
+            long length = 0;
+            for (int j = from; j < to; j++) {
+                strings[j] = elements.get(j).toString();
+                length += strings[j].length();
+            }
+            return new long[]{from, length};
+        });
+        int[] starts = new int[chunks.size()];
+        int[] offsets = new int[chunks.size()];
+        long length = 0;
+        for (int j = 0; j < chunks.size(); j++) {
+            starts[j] = (int) chunks.get(j)[0];
+            if (length > Integer.MAX_VALUE) {
+                throw new OutOfMemoryError("Joined string is too long");
+            }
+            offsets[j] = (int) length;
+            length += chunks.get(j)[1];
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new OutOfMemoryError("Joined string is too long");
+        }
+        char[] result = buffer != null && buffer.length >= length ? buffer : new char[(int) length];
+        runRanges(elements.size(), i, null, (from, to) -> {
+            int chunk = Arrays.binarySearch(starts, from);
+            chunk = chunk >= 0 ? chunk : -chunk - 2;
+            int offset = offsets[chunk];
+            for (int j = starts[chunk]; j < from; j++) {
+                offset += strings[j].length();
+            }
+            for (int j = from; j < to; j++) {
+                strings[j].getChars(0, strings[j].length(), result, offset);
+                offset += strings[j].length();
+            }
+            return null;
+        });
+        return CharBuffer.wrap(result, 0, (int) length);
     }
 
     /**
@@ -101,8 +273,7 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> List<T> filter(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        Function<List<? extends T>, List<? extends T>> filterList = t -> t.stream().filter(predicate).collect(Collectors.toList());
-        return runPieces(list, i, filterList).stream().flatMap(piece -> piece.stream()).collect(Collectors.toList());
+        return new ArrayList<>(this.<T>pipeline(list).filter(predicate).toList(i));
     }
 
     /**
@@ -121,8 +292,7 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T, U> List<U> map(int i, List<? extends T> list, Function<? super T, ? extends U> function) throws InterruptedException {
-        Function<List<? extends T>, List<? extends U>> mapList = t -> t.stream().map(function).collect(Collectors.toList());
-        return runPieces(list, i, mapList).stream().flatMap(piece -> piece.stream()).collect(Collectors.toList());
+        return new ArrayList<>(this.<T>pipeline(list).<U>map(function).toList(i));
     }
 
     /**
@@ -140,8 +310,7 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> T maximum(int i, List<? extends T> list, Comparator<? super T> comparator) throws InterruptedException {
-        Function<List<? extends T>, T> function = maxList -> maxList.stream().max(comparator).get();
-        return function.apply(runPieces(list, i, function));
+        return pipeline(list).maximum(i, comparator);
     }
 
     /**
@@ -177,7 +346,7 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> boolean all(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return runPieces(list, i, t -> t.stream().allMatch(predicate)).stream().allMatch(t1 -> t1);
+        return pipeline(list).all(i, predicate);
     }
 
     /**
@@ -195,6 +364,6 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> boolean any(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return runPieces(list, i, t -> t.stream().anyMatch(predicate)).stream().anyMatch(t1 -> t1);
+        return pipeline(list).any(i, predicate);
     }
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package ru.ifmo.ctddev.gafarov.concurrent;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Lazy chain of {@code map} and {@code filter} stages over list, that is run by one parallel pass.
+ * <p/>
+ * Stages are fused into one function, which is applied to every element of source list inside the piece,
+ * so no intermediate lists are built. Terminal operations split source the same way
+ * {@link IterativeParallelism} does, and collect results of pieces into presized arrays.
+ * Pipeline is immutable, every stage returns new pipeline, so a prefix can be shared.
+ *
+ * @param <T> type of elements after all stages
+ */
+public class Pipeline<T> {
+    private static final Object SKIP = new Object();
+
+    private final IterativeParallelism parallelism;
+    private final List<?> source;
+    private final ToLongFunction<Object> cost;
+    private final Function<Object, ?> stage;
+    private final boolean filtered;
+
+    private interface Piece<R> {
+        R apply(List<?> elements, int from);
+    }
+
+    Pipeline(IterativeParallelism parallelism, List<?> source, ToLongFunction<Object> cost,
+             Function<Object, ?> stage, boolean filtered) {
+        this.parallelism = parallelism;
+        this.source = source;
+        this.cost = cost;
+        this.stage = stage;
+        this.filtered = filtered;
+    }
+
+    private <R> List<R> run(int threads, Piece<R> piece) throws InterruptedException {
+        List<?> elements = IterativeParallelism.randomAccess(source);
+        long[] costs = null;
+        if (cost != null) {
+            costs = new long[elements.size() + 1];
+            for (int i = 0; i < elements.size(); i++) {
+                costs[i + 1] = costs[i] + Math.max(0, cost.applyAsLong(elements.get(i)));
+            }
+        }
+        return parallelism.runRanges(elements.size(), threads, costs,
+                (from, to) -> piece.apply(elements.subList(from, to), from));
+    }
+
+    /**
+     * Adds stage, that keeps only elements satisfying {@code predicate}.
+     *
+     * @param predicate predicate to filter to
+     * @return new pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public Pipeline<T> filter(Predicate<? super T> predicate) {
+        return new Pipeline<>(parallelism, source, cost, element -> {
+            Object value = stage.apply(element);
+            return value == SKIP || !predicate.test((T) value) ? SKIP : value;
+        }, true);
+    }
+
+    /**
+     * Adds stage, that applies {@code function} to every element.
+     *
+     * @param function function to map each element
+     * @param <U>      type of mapped elements
+     * @return new pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public <U> Pipeline<U> map(Function<? super T, ? extends U> function) {
+        return new Pipeline<>(parallelism, source, cost, element -> {
+            Object value = stage.apply(element);
+            return value == SKIP ? SKIP : function.apply((T) value);
+        }, filtered);
+    }
+
+    /**
+     * Collects elements in order of source.
+     * If pipeline has no filters, pieces write results straight into their positions of one array,
+     * otherwise every piece fills array of its own size, and arrays are copied together.
+     *
+     * @param threads number of threads
+     * @return fixed-size list of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> toList(int threads) throws InterruptedException {
+        if (!filtered) {
+            Object[] result = new Object[source.size()];
+            run(threads, (elements, from) -> {
+                int i = from;
+                for (Object element : elements) {
+                    result[i++] = stage.apply(element);
+                }
+                return null;
+            });
+            return (List<T>) Arrays.asList(result);
+        }
+        List<Object[]> pieces = run(threads, (elements, from) -> {
+            Object[] values = new Object[elements.size()];
+            int size = 0;
+            for (Object element : elements) {
+                Object value = stage.apply(element);
+                if (value != SKIP) {
+                    values[size++] = value;
+                }
+            }
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        });
+        int size = 0;
+        for (Object[] piece : pieces) {
+            size += piece.length;
+        }
+        Object[] result = new Object[size];
+        size = 0;
+        for (Object[] piece : pieces) {
+            System.arraycopy(piece, 0, result, size, piece.length);
+            size += piece.length;
+        }
+        return (List<T>) Arrays.asList(result);
+    }
+
+    /**
+     * Counts elements, that pass all filters.
+     *
+     * @param threads number of threads
+     * @return number of elements
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public long count(int threads) throws InterruptedException {
+        long count = 0;
+        for (long piece : run(threads, (elements, from) -> {
+            long size = 0;
+            for (Object element : elements) {
+                if (stage.apply(element) != SKIP) {
+                    size++;
+                }
+            }
+            return size;
+        })) {
+            count += piece;
+        }
+        return count;
+    }
+
+    /**
+     * Reduces elements by associative {@code operator}.
+     *
+     * @param threads  number of threads
+     * @param operator associative operator
+     * @return result of reduction
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if there are no elements
+     */
+    @SuppressWarnings("unchecked")
+    public T reduce(int threads, BinaryOperator<T> operator) throws InterruptedException {
+        Object result = SKIP;
+        for (Object piece : run(threads, (elements, from) -> {
+            Object value = SKIP;
+            for (Object element : elements) {
+                Object next = stage.apply(element);
+                if (next != SKIP) {
+                    value = value == SKIP ? next : operator.apply((T) value, (T) next);
+                }
+            }
+            return value;
+        })) {
+            if (piece != SKIP) {
+                result = result == SKIP ? piece : operator.apply((T) result, (T) piece);
+            }
+        }
+        if (result == SKIP) {
+            throw new NoSuchElementException();
+        }
+        return (T) result;
+    }
+
+    /**
+     * Returns maximum of elements.
+     *
+     * @param threads    number of threads
+     * @param comparator comparator that helps to compare elements
+     * @return the first maximal element
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if there are no elements
+     */
+    public T maximum(int threads, Comparator<? super T> comparator) throws InterruptedException {
+        return reduce(threads, (a, b) -> comparator.compare(a, b) >= 0 ? a : b);
+    }
+
+    /**
+     * Returns minimum of elements.
+     *
+     * @param threads    number of threads
+     * @param comparator comparator that helps to compare elements
+     * @return the first minimal element
+     * @throws InterruptedException   if calling thread is interrupted
+     * @throws NoSuchElementException if there are no elements
+     */
+    public T minimum(int threads, Comparator<? super T> comparator) throws InterruptedException {
+        return reduce(threads, (a, b) -> comparator.compare(a, b) <= 0 ? a : b);
+    }
+
+    /**
+     * Checks that any element satisfies {@code predicate}, pieces stop as soon as one of them finds it.
+     *
+     * @param threads   number of threads
+     * @param predicate predicate to check to
+     * @return {@code true} if some element satisfies predicate
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    @SuppressWarnings("unchecked")
+    public boolean any(int threads, Predicate<? super T> predicate) throws InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        run(threads, (elements, from) -> {
+            for (Object element : elements) {
+                if (found.get()) {
+                    break;
+                }
+                Object value = stage.apply(element);
+                if (value != SKIP && predicate.test((T) value)) {
+                    found.set(true);
+                    break;
+                }
+            }
+            return null;
+        });
+        return found.get();
+    }
+
+    /**
+     * Checks that all elements satisfy {@code predicate}, pieces stop as soon as one of them finds counterexample.
+     *
+     * @param threads   number of threads
+     * @param predicate predicate to check to
+     * @return {@code true} if every element satisfies predicate
+     * @throws InterruptedException if calling thread is interrupted
+     */
+    public boolean all(int threads, Predicate<? super T> predicate) throws InterruptedException {
+        return !any(threads, predicate.negate());
+    }
+}
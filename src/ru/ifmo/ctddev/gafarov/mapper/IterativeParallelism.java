@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -184,6 +185,28 @@ public class IterativeParallelism implements ListIP {
         return maximum(i, list, comparator == null ? Collections.reverseOrder() : comparator.reversed());
     }
 
+    /**
+     * Checks whether some element satisfies {@code predicate}.
+     * Pieces share a flag, which is set by the first piece that finds such element, and is checked by others
+     * before every element, so they stop as soon as the answer is known.
+     */
+    private <T> boolean find(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
+        AtomicBoolean found = new AtomicBoolean();
+        runPieces(list, i, piece -> {
+            for (T element : piece) {
+                if (found.get()) {
+                    break;
+                }
+                if (predicate.test(element)) {
+                    found.set(true);
+                    break;
+                }
+            }
+            return null;
+        });
+        return found.get();
+    }
+
     /**
      * Checks that all elements of list satisfies given predicate.
      * If this instance was created by #IterativeParallelism(ParallelMapper), it will use parallelMapper.
@@ -200,7 +223,7 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> boolean all(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return runPieces(list, i, t -> t.stream().allMatch(predicate)).stream().allMatch(t1 -> t1);
+        return !find(i, list, predicate.negate());
     }
 
     /**
@@ -219,6 +242,6 @@ public class IterativeParallelism implements ListIP {
      */
     @Override
     public <T> boolean any(int i, List<? extends T> list, Predicate<? super T> predicate) throws InterruptedException {
-        return runPieces(list, i, t -> t.stream().anyMatch(predicate)).stream().anyMatch(t1 -> t1);
+        return find(i, list, predicate);
     }
 }
\ No newline at end of file
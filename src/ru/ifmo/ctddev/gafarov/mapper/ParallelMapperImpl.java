@@ -2,96 +2,273 @@ package ru.ifmo.ctddev.gafarov.mapper;
 
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.ObjIntConsumer;
 
 /**
  *  Class designed to manage parallel functions on lists.
+ *  Tasks are kept in a lock-free queue, idle workers block on it, and every added task wakes one of them.
  * @see info.kgeorgiy.java.advanced.mapper.ParallelMapper
  */
 public class ParallelMapperImpl implements ParallelMapper {
-    private final Queue<Task<?, ?>> tasksFIFO = new ArrayDeque<>();
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final BlockingQueue<Runnable> tasksFIFO = new LinkedTransferQueue<>();
     private final ArrayList<Thread> threads = new ArrayList<>();
+    private final int minBatch;
+    private volatile boolean closed;
 
     /**
      * Creates instance of class working on {@code n_threads}
      * @param n_threads number of threads to work on
      */
     public ParallelMapperImpl(int n_threads) {
+        this(n_threads, 1);
+    }
+
+    /**
+     * Creates instance of class working on {@code n_threads}, that passes at least {@code minBatch} elements
+     * to worker at once. Cheap functions need bigger batches to outweigh handing them to other thread.
+     * @param n_threads number of threads to work on
+     * @param minBatch minimal number of elements in one batch
+     * @throws IllegalArgumentException if {@code minBatch} is not positive
+     */
+    public ParallelMapperImpl(int n_threads, int minBatch) {
+        if (minBatch < 1) {
+            throw new IllegalArgumentException("minBatch " + minBatch);
+        }
+        this.minBatch = minBatch;
         for (int i = 0; i < n_threads; i++) {
             threads.add(new Thread(() -> {
-                while (!Thread.interrupted()) {
-                    Task<?, ?> task;
-                    synchronized (tasksFIFO) {
-                        while (tasksFIFO.isEmpty()) {
-                            try {
-                                tasksFIFO.wait();
-                            } catch (InterruptedException ignored) {
-                                Thread.currentThread().interrupt();
-                                return;
-                            }
-                        }
-                        task = tasksFIFO.poll();
+                try {
+                    while (!closed) {
+                        tasksFIFO.take().run();
                     }
-                    task.process();
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
                 }
             }));
         }
         threads.forEach(Thread::start);
     }
 
-    private class Task<T, R> {
-        private Function<? super T, ? extends R> function;
-        private T element;
-        private boolean done = false;
-        private R result;
+    private static class Batch<T> implements Runnable {
+        private final Function<? super T, ?> function;
+        private final List<? extends T> elements;
+        private final ObjIntConsumer<Object> sink;
+        private final int chunks;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
 
-        public Task(Function<? super T, ? extends R> function, T element) {
-            this.element = element;
+        Batch(Function<? super T, ?> function, List<? extends T> elements, ObjIntConsumer<Object> sink, int chunks) {
             this.function = function;
+            this.elements = elements;
+            this.sink = sink;
+            this.chunks = chunks;
+            remaining = new AtomicInteger(chunks);
+        }
+
+        /**
+         * Processes the next chunk, that hasn't been taken yet, if there is one.
+         */
+        @Override
+        public void run() {
+            int i = next.getAndIncrement();
+            if (i >= chunks) {
+                return;
+            }
+            try {
+                for (int j = bound(i); j < bound(i + 1); j++) {
+                    sink.accept(function.apply(elements.get(j)), j);
+                }
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+            finish(1);
+        }
+
+        private int bound(int i) {
+            return (int) ((long) elements.size() * i / chunks);
         }
 
-        public synchronized void process() {
-            result = function.apply(element);
-            done = true;
-            notifyAll();
+        /**
+         * Completes future, when the last chunk is finished, with the first error if there is one.
+         */
+        private void finish(int finished) {
+            if (finished > 0 && remaining.addAndGet(-finished) == 0) {
+                Throwable e = error.get();
+                if (e == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * Stores the first error and finishes chunks, that haven't been taken.
+         */
+        void fail(Throwable e) {
+            error.compareAndSet(null, e);
+            finish(chunks - Math.min(chunks, next.getAndSet(chunks)));
         }
 
-        public synchronized R getResult() throws InterruptedException {
-            while (!done) {
-                wait();
+        void await() throws InterruptedException {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                fail(e);
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
             }
-            return result;
         }
+    }
 
+    /**
+     * Splits list into batches and passes them to worker threads.
+     * There are up to {@link #CHUNKS_PER_WORKER} batches per worker, so that workers, that got cheap elements,
+     * take more batches, and every batch has at least the minimal number of elements given to constructor.
+     * Future of batch, that isn't passed to any worker, is completed right away, so it is never left pending.
+     */
+    private <T> Batch<T> submit(Function<? super T, ?> function, List<? extends T> list, ObjIntConsumer<Object> sink) {
+        @SuppressWarnings("unchecked")
+        List<? extends T> elements = list instanceof RandomAccess ? list : (List<? extends T>) Arrays.asList(list.toArray());
+        int batches = elements.isEmpty() ? 0 : (elements.size() - 1) / minBatch + 1;
+        int chunks = Math.min(threads.size() * CHUNKS_PER_WORKER, batches);
+        Batch<T> batch = new Batch<>(function, elements, sink, chunks);
+        if (chunks <= 0) {
+            if (elements.isEmpty()) {
+                batch.done.complete(null);
+            } else {
+                String reason = closed ? "Mapper is closed" : "Mapper has no threads";
+                batch.done.completeExceptionally(new IllegalStateException(reason));
+            }
+            return batch;
+        }
+        for (int i = 0; i < chunks; i++) {
+            tasksFIFO.add(batch);
+        }
+        // close() may have drained queue before batch was added, then nobody else fails it
+        if (closed) {
+            batch.fail(new IllegalStateException("Mapper is closed"));
+        }
+        return batch;
     }
 
     /**
-     * Creates Task for each element and pass it to worker threads
+     * Applies function to each element of list on worker threads and waits for results.
+     * Results are written to one array, and the caller waits once for all batches.
+     *
      * @param function function to apply to each element
      * @param list input data
      * @param <T> type that describes input data
      * @param <R> type that describes output data
      * @return list of results of applying function to each element
-     * @throws InterruptedException if any thread worker has interrupted
+     * @throws InterruptedException if calling thread is interrupted while waiting
+     * @throws IllegalStateException if mapper is closed before all elements are processed
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <T, R> List<R> map(Function<? super T, ? extends R> function, List<? extends T> list) throws InterruptedException {
-        List<Task<T, R>> tasksForList = list.stream().map(el -> new Task<T, R>(function, el)).collect(Collectors.toList());
-        tasksForList.forEach(tasksFIFO::add);
-        synchronized (tasksFIFO) {
-            tasksFIFO.notifyAll();
-        }
+        Object[] results = new Object[list.size()];
+        submit(function, list, (result, i) -> results[i] = result).await();
+        return new ArrayList<>((List<R>) Arrays.asList(results));
+    }
 
-        List<R> answer = new ArrayList<>(tasksForList.size());
-        for (Task<T, R> task : tasksForList) {
-            answer.add(task.getResult());
-        }
-        return answer;
+    /**
+     * Applies function to each element of list on worker threads without waiting for results.
+     * Future is completed by the worker, that finishes the last batch, so dependent actions,
+     * that aren't async, run on that worker.
+     *
+     * @param function function to apply to each element
+     * @param list input data
+     * @param <T> type that describes input data
+     * @param <R> type that describes output data
+     * @return future of fixed-size list of results, completed exceptionally with the first error thrown by function,
+     * or with {@link IllegalStateException} if mapper is closed before all elements are processed or has no threads
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> function, List<? extends T> list) {
+        Object[] results = new Object[list.size()];
+        return submit(function, list, (result, i) -> results[i] = result).done
+                .thenApply(ignored -> (List<R>) Arrays.asList(results));
+    }
+
+    /**
+     * Applies function to each element of list on worker threads and passes every result with its index
+     * to {@code consumer} as soon as it is computed, so results come in order of completion.
+     * Results are not kept, consumer is called by worker threads concurrently and should be thread-safe.
+     * Exception thrown by consumer stops processing the same way as exception thrown by function.
+     *
+     * @param function function to apply to each element
+     * @param list input data
+     * @param consumer receiver of results and indices of their elements
+     * @param <T> type that describes input data
+     * @param <R> type that describes output data
+     * @return future, that is completed after the last result is passed to consumer, or exceptionally
+     * the same way as future returned by {@link #mapAsync(Function, List)}
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> CompletableFuture<Void> mapEach(Function<? super T, ? extends R> function, List<? extends T> list,
+                                                  ObjIntConsumer<? super R> consumer) {
+        return submit(function, list, (result, i) -> consumer.accept((R) result, i)).done.thenApply(ignored -> null);
+    }
+
+    /**
+     * Returns publisher of results of applying function to each element of list, built over
+     * {@link #mapEach(Function, List, ObjIntConsumer)}. Every subscription maps the list anew,
+     * results come in order of completion and are delivered asynchronously with respect to subscriber demand.
+     * Workers wait while the subscriber's buffer is full, and processing stops once the subscription is cancelled.
+     * Subscriber gets {@code onComplete} after the last result, or {@code onError} with the error,
+     * that completed the future returned by {@code mapEach}.
+     *
+     * @param function function to apply to each element
+     * @param list input data
+     * @param <T> type that describes input data
+     * @param <R> type that describes output data
+     * @return cold publisher of results
+     */
+    public <T, R> Flow.Publisher<R> mapPublisher(Function<? super T, ? extends R> function, List<? extends T> list) {
+        return subscriber -> {
+            SubmissionPublisher<R> publisher = new SubmissionPublisher<>();
+            publisher.subscribe(subscriber);
+            mapEach(function, list, (R result, int i) -> {
+                if (!publisher.hasSubscribers()) {
+                    throw new CancellationException();
+                }
+                publisher.submit(result);
+            }).whenComplete((ignored, e) -> {
+                if (e == null) {
+                    publisher.close();
+                } else {
+                    publisher.closeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                }
+            });
+        };
     }
 
     /**
@@ -100,10 +277,16 @@ public class ParallelMapperImpl implements ParallelMapper {
      */
     @Override
     public void close() throws InterruptedException {
-        synchronized (tasksFIFO){
-            tasksFIFO.clear();
-            threads.forEach(Thread::interrupt);
-            threads.clear();
+        closed = true;
+        List<Runnable> pending = new ArrayList<>();
+        tasksFIFO.drainTo(pending);
+        for (Runnable task : pending) {
+            ((Batch<?>) task).fail(new IllegalStateException("Mapper is closed"));
+        }
+        threads.forEach(Thread::interrupt);
+        for (Thread thread : threads) {
+            thread.join();
         }
+        threads.clear();
     }
 }
@@ -0,0 +1,138 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Finds files with equal contents.
+ * <p/>
+ * Files are grouped by size first, only files which size is shared with other files are read.
+ * Their first and last {@link #SAMPLE} bytes are hashed, and only files which sample digests
+ * are shared are hashed fully. Every group of duplicates is written as lines {@code <digest> <file>}
+ * followed by an empty line. Files that couldn't be visited or read are written with zero digest,
+ * the same way {@link RecursiveWalker} does, as a block of their own after all groups,
+ * so that they are not taken for members of a group.
+ * Paths leading to already found file key, such as hardlinks or files under overlapping roots,
+ * are not candidates, as they don't take extra space.
+ */
+class DuplicateFinder {
+    static final int SAMPLE = 1 << 12;
+
+    private static class Candidate {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+
+        Candidate(Path file, BasicFileAttributes attrs) {
+            this.file = file;
+            this.attrs = attrs;
+        }
+    }
+
+    private interface Digester {
+        byte[] apply(Candidate candidate) throws IOException;
+    }
+
+    private final ResultWriter out;
+    private final FileHasher hasher;
+    private final Map<Long, List<Candidate>> bySize = new HashMap<>();
+    private final Set<Object> fileKeys = new HashSet<>();
+    private final List<Path> failed = new ArrayList<>();
+
+    /**
+     * Creates finder writing duplicate groups to {@code out}.
+     *
+     * @param out    writer for result lines
+     * @param hasher hasher to compute digests
+     */
+    DuplicateFinder(ResultWriter out, FileHasher hasher) {
+        this.out = out;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Walks every root, then writes groups of duplicates among all found files.
+     *
+     * @param roots   reader of roots to walk, one per line
+     * @param options walk options, see {@link RecursiveWalker#walk(BufferedReader, Set, FileVisitor)}
+     * @throws IOException if roots couldn't be read or result couldn't be written
+     */
+    void walk(BufferedReader roots, Set<FileVisitOption> options) throws IOException {
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.fileKey() != null && !fileKeys.add(attrs.fileKey())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(new Candidate(file, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (!(exc instanceof FileSystemLoopException)) {
+                    failed.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        RecursiveWalker.walk(roots, options, visitor);
+
+        for (Map.Entry<Long, List<Candidate>> sized : bySize.entrySet()) {
+            if (sized.getValue().size() < 2) {
+                continue;
+            }
+            Map<ByteBuffer, List<Candidate>> sampled = group(sized.getValue(), c -> hasher.sampleDigest(c.file, SAMPLE));
+            if (sized.getKey() <= 2L * SAMPLE) {
+                report(sampled);
+                continue;
+            }
+            for (List<Candidate> candidates : sampled.values()) {
+                if (candidates.size() > 1) {
+                    report(group(candidates, c -> hasher.hash(c.file, c.attrs)));
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            for (Path file : failed) {
+                out.write(null, file);
+            }
+            out.newLine();
+        }
+        bySize.clear();
+        fileKeys.clear();
+        failed.clear();
+    }
+
+    private void report(Map<ByteBuffer, List<Candidate>> groups) throws IOException {
+        for (Map.Entry<ByteBuffer, List<Candidate>> group : groups.entrySet()) {
+            if (group.getValue().size() > 1) {
+                for (Candidate candidate : group.getValue()) {
+                    out.write(group.getKey().array(), candidate.file);
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    private Map<ByteBuffer, List<Candidate>> group(List<Candidate> candidates, Digester digester) {
+        Map<ByteBuffer, List<Candidate>> groups = new HashMap<>();
+        for (Candidate candidate : candidates) {
+            byte[] digest;
+            try {
+                digest = digester.apply(candidate);
+            } catch (IOException e) {
+                digest = null;
+            }
+            if (digest == null) {
+                failed.add(candidate.file);
+            } else {
+                groups.computeIfAbsent(ByteBuffer.wrap(digest), d -> new ArrayList<>()).add(candidate);
+            }
+        }
+        return groups;
+    }
+}
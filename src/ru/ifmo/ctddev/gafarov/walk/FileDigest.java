@@ -0,0 +1,127 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Digest of file contents, either cryptographic {@link MessageDigest} or 32-bit {@link Checksum}.
+ * Instances are not thread-safe.
+ */
+abstract class FileDigest {
+    private static class Message extends FileDigest {
+        private final MessageDigest digest;
+
+        Message(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        void update(ByteBuffer data) {
+            digest.update(data);
+        }
+
+        @Override
+        void digest(byte[] into, int offset) {
+            try {
+                digest.digest(into, offset, digest.getDigestLength());
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void reset() {
+            digest.reset();
+        }
+
+        @Override
+        int length() {
+            return digest.getDigestLength();
+        }
+    }
+
+    private static class Sum extends FileDigest {
+        private final Checksum checksum;
+
+        Sum(Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        void update(ByteBuffer data) {
+            checksum.update(data);
+        }
+
+        @Override
+        void digest(byte[] into, int offset) {
+            long value = checksum.getValue();
+            checksum.reset();
+            into[offset] = (byte) (value >>> 24);
+            into[offset + 1] = (byte) (value >>> 16);
+            into[offset + 2] = (byte) (value >>> 8);
+            into[offset + 3] = (byte) value;
+        }
+
+        @Override
+        void reset() {
+            checksum.reset();
+        }
+
+        @Override
+        int length() {
+            return 4;
+        }
+    }
+
+    /**
+     * Returns digest by name.
+     * {@code CRC32}, {@code CRC32C} and {@code Adler32} give checksums, other names are passed to {@link MessageDigest}.
+     *
+     * @param algorithm name of algorithm
+     * @return new digest
+     * @throws NoSuchAlgorithmException if there is no such algorithm
+     */
+    static FileDigest forName(String algorithm) throws NoSuchAlgorithmException {
+        switch (algorithm.toUpperCase()) {
+            case "CRC32":
+                return new Sum(new CRC32());
+            case "CRC32C":
+                return new Sum(new CRC32C());
+            case "ADLER32":
+                return new Sum(new Adler32());
+            default:
+                return new Message(MessageDigest.getInstance(algorithm));
+        }
+    }
+
+    /**
+     * Updates digest with remaining bytes of {@code data}, position of {@code data} becomes equal to its limit.
+     *
+     * @param data bytes to digest
+     */
+    abstract void update(ByteBuffer data);
+
+    /**
+     * Completes digest, writes it to {@code into} and resets digest for the next file.
+     *
+     * @param into   array to write {@link #length()} digest bytes to
+     * @param offset position of the first digest byte in {@code into}
+     */
+    abstract void digest(byte[] into, int offset);
+
+    /**
+     * Discards bytes digested so far.
+     */
+    abstract void reset();
+
+    /**
+     * @return length of digest in bytes
+     */
+    abstract int length();
+}
@@ -0,0 +1,353 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes digests of files with one or several algorithms in a single read pass.
+ * <p/>
+ * Digest of a file is a concatenation of digests of every algorithm, see {@link #parts()}.
+ * <p/>
+ * Files smaller than mmap threshold are read through {@link FileChannel} into a reused direct buffer,
+ * bigger ones are mapped to memory by chunks that are passed to digests without copying.
+ * Mappings are released only by garbage collector, so hasher and its copies map at most {@link #MAPPED_LIMIT}
+ * bytes in total, files after that are read as small ones.
+ * If hasher has {@link HashCache}, digests of unchanged files are taken from it.
+ * If hasher tracks inodes, every file is read once however many hardlinks or overlapping roots lead to it:
+ * digest is remembered by {@link BasicFileAttributes#fileKey()} and reused for the other paths,
+ * thread that meets a file being hashed by another thread waits for its digest.
+ * Instances are not thread-safe, every hashing thread has to use its own, see {@link #copy()}.
+ */
+class FileHasher {
+    static final List<String> DEFAULT_ALGORITHMS = Arrays.asList("MD5");
+    static final long DEFAULT_MMAP_THRESHOLD = 1 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_CHUNK = 1 << 26;
+    private static final long MAPPED_LIMIT = 1L << 32;
+
+    /**
+     * Digest of a file and time it started to be read at, see {@link HashCache#put}.
+     */
+    private static class Hashed {
+        private final byte[] digest;
+        private final long started;
+
+        Hashed(byte[] digest, long started) {
+            this.digest = digest;
+            this.started = started;
+        }
+    }
+
+    private final List<String> algorithms;
+    private final FileDigest[] digests;
+    private final ByteBuffer buffer;
+    private final long mmapThreshold;
+    private final HashCache cache;
+    private final Map<Object, CompletableFuture<Hashed>> inodes;
+    private final AtomicLong mapped;
+    private final WalkStats stats;
+
+    FileHasher() throws NoSuchAlgorithmException {
+        this(DEFAULT_ALGORITHMS, DEFAULT_MMAP_THRESHOLD, null, false, null);
+    }
+
+    /**
+     * Creates hasher that maps files of at least {@code mmapThreshold} bytes.
+     *
+     * @param algorithms    names of digest algorithms, see {@link FileDigest#forName(String)}
+     * @param mmapThreshold minimal size of file to map, {@link Long#MAX_VALUE} to never map
+     * @param cache         cache of digests, or {@code null} to hash every file
+     * @param trackInodes   whether digests have to be reused for files with the same file key
+     * @param stats         stats to record hashed files to, or {@code null}
+     * @throws NoSuchAlgorithmException if any of algorithms is not available
+     */
+    FileHasher(List<String> algorithms, long mmapThreshold, HashCache cache, boolean trackInodes, WalkStats stats)
+            throws NoSuchAlgorithmException {
+        this(algorithms, mmapThreshold, cache, trackInodes ? new ConcurrentHashMap<>() : null, new AtomicLong(), stats);
+    }
+
+    private FileHasher(List<String> algorithms, long mmapThreshold, HashCache cache, Map<Object, CompletableFuture<Hashed>> inodes,
+                       AtomicLong mapped, WalkStats stats) throws NoSuchAlgorithmException {
+        this.algorithms = algorithms;
+        digests = new FileDigest[algorithms.size()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = FileDigest.forName(algorithms.get(i));
+        }
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.mmapThreshold = mmapThreshold;
+        this.cache = cache;
+        this.inodes = inodes;
+        this.mapped = mapped;
+        this.stats = stats;
+    }
+
+    /**
+     * Returns names of algorithms separated by commas, e.g. {@code MD5,CRC32C}.
+     *
+     * @param algorithms names of algorithms
+     * @return joined names
+     */
+    static String name(List<String> algorithms) {
+        return String.join(",", algorithms);
+    }
+
+    /**
+     * Returns length of digest of file computed with {@code algorithms}.
+     *
+     * @param algorithms names of algorithms
+     * @return length in bytes
+     * @throws NoSuchAlgorithmException if any of algorithms is not available
+     */
+    static int length(List<String> algorithms) throws NoSuchAlgorithmException {
+        int length = 0;
+        for (String algorithm : algorithms) {
+            length += FileDigest.forName(algorithm).length();
+        }
+        return length;
+    }
+
+    /**
+     * Creates hasher with the same settings, to be used by another thread.
+     *
+     * @return new hasher
+     */
+    FileHasher copy() {
+        try {
+            return new FileHasher(algorithms, mmapThreshold, cache, inodes, mapped, stats);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns lengths of digests of every algorithm.
+     *
+     * @return lengths in bytes, in order of algorithms
+     */
+    int[] parts() {
+        int[] parts = new int[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            parts[i] = digests[i].length();
+        }
+        return parts;
+    }
+
+    /**
+     * Returns digest of file, taking it from cache if file wasn't changed
+     * or from another path of the same file if inodes are tracked.
+     *
+     * @param file  file to hash
+     * @param attrs attributes of file
+     * @return digest of file or {@code null} if file couldn't be read
+     */
+    byte[] hash(Path file, BasicFileAttributes attrs) {
+        byte[] result = new byte[length()];
+        return hash(file, attrs, result) ? result : null;
+    }
+
+    /**
+     * Writes digest of file to {@code into}, the same way as {@link #hash(Path, BasicFileAttributes)} does,
+     * so that caller, which doesn't keep digests, can reuse one array for every file.
+     *
+     * @param file  file to hash
+     * @param attrs attributes of file
+     * @param into  array of {@link #length()} bytes to write digest to
+     * @return {@code false} if file couldn't be read
+     */
+    boolean hash(Path file, BasicFileAttributes attrs, byte[] into) {
+        if (stats != null) {
+            stats.started(file);
+        }
+        Object key = inodes == null ? null : attrs.fileKey();
+        if (key == null) {
+            return hashOnce(file, attrs, into) >= 0;
+        }
+        CompletableFuture<Hashed> own = new CompletableFuture<>();
+        CompletableFuture<Hashed> first = inodes.putIfAbsent(key, own);
+        if (first == null) {
+            long started = -1;
+            try {
+                started = hashOnce(file, attrs, into);
+            } finally {
+                own.complete(started >= 0 ? new Hashed(into.clone(), started) : null);
+            }
+            return started >= 0;
+        }
+        Hashed hashed = first.join();
+        if (hashed == null) {
+            return false;
+        }
+        System.arraycopy(hashed.digest, 0, into, 0, hashed.digest.length);
+        if (cache != null) {
+            cache.put(file, attrs, hashed.digest, hashed.started);
+        }
+        if (stats != null) {
+            stats.reused();
+        }
+        return true;
+    }
+
+    /**
+     * Takes digest from cache or reads file, while no other path of the same file is being hashed.
+     *
+     * @return time file started to be read at in nanoseconds since epoch, {@link Long#MAX_VALUE}
+     * if digest was taken from cache, or {@code -1} if file couldn't be read
+     */
+    private long hashOnce(Path file, BasicFileAttributes attrs, byte[] into) {
+        byte[] cached = cache == null ? null : cache.get(file, attrs);
+        if (cached != null) {
+            System.arraycopy(cached, 0, into, 0, cached.length);
+            if (stats != null) {
+                stats.reused();
+            }
+            return Long.MAX_VALUE;
+        }
+        long started = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        long start = stats == null ? 0 : System.nanoTime();
+        try {
+            digest(file, into);
+        } catch (IOException e) {
+            return -1;
+        }
+        if (cache != null) {
+            cache.put(file, attrs, into, started);
+        }
+        if (stats != null) {
+            stats.hashed(attrs.size(), System.nanoTime() - start);
+        }
+        return started;
+    }
+
+    /**
+     * Reads whole file and returns its digest.
+     *
+     * @param file file to hash
+     * @return digest of file
+     * @throws IOException if file couldn't be read
+     */
+    byte[] digest(Path file) throws IOException {
+        byte[] result = new byte[length()];
+        digest(file, result);
+        return result;
+    }
+
+    private void digest(Path file, byte[] into) throws IOException {
+        reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= mmapThreshold && reserve(size)) {
+                for (long position = 0; position < size; position += MAP_CHUNK) {
+                    update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK, size - position)));
+                }
+            } else {
+                buffer.clear();
+                while (channel.read(buffer) > 0) {
+                    buffer.flip();
+                    update(buffer);
+                    buffer.clear();
+                }
+            }
+        }
+        finish(into);
+    }
+
+    /**
+     * Returns digest of first and last {@code sample} bytes of file.
+     * For files not longer than {@code 2 * sample} bytes it is the same as {@link #digest(Path)}.
+     *
+     * @param file   file to hash
+     * @param sample number of bytes to read from each end of file
+     * @return digest of file ends
+     * @throws IOException if file couldn't be read
+     */
+    byte[] sampleDigest(Path file, int sample) throws IOException {
+        reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= 2L * sample) {
+                read(channel, 0, size);
+            } else {
+                read(channel, 0, sample);
+                read(channel, size - sample, sample);
+            }
+            if (stats != null) {
+                stats.read(Math.min(size, 2L * sample));
+            }
+        }
+        byte[] result = new byte[length()];
+        finish(result);
+        return result;
+    }
+
+    /**
+     * Takes {@code size} bytes from the budget of mapped bytes shared by all copies of hasher.
+     */
+    private boolean reserve(long size) {
+        if (mapped.addAndGet(size) <= MAPPED_LIMIT) {
+            return true;
+        }
+        mapped.addAndGet(-size);
+        return false;
+    }
+
+    private void read(FileChannel channel, long position, long length) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                break;
+            }
+            position += count;
+            buffer.flip();
+            update(buffer);
+        }
+    }
+
+    private void reset() {
+        for (FileDigest digest : digests) {
+            digest.reset();
+        }
+    }
+
+    private void finish(byte[] into) {
+        int offset = 0;
+        for (FileDigest digest : digests) {
+            digest.digest(into, offset);
+            offset += digest.length();
+        }
+    }
+
+    private void update(ByteBuffer data) {
+        int position = data.position();
+        for (FileDigest digest : digests) {
+            data.position(position);
+            digest.update(data);
+        }
+    }
+
+    /**
+     * @return length of digest of file in bytes, sum of {@link #parts()}
+     */
+    int length() {
+        int length = 0;
+        for (FileDigest digest : digests) {
+            length += digest.length();
+        }
+        return length;
+    }
+}
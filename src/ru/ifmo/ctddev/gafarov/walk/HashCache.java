@@ -0,0 +1,202 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of file digests keyed by absolute path.
+ * <p/>
+ * Cached digest is used only if size, last modified time and file key of the file are the same as they were
+ * when it was hashed. File modified shortly before it started to be read could be changed again within the same
+ * timestamp tick without changing its attributes, so its digest is not cached, see {@link #RACY_WINDOW}.
+ * Entries that weren't looked up
+ * or stored since the cache was loaded are considered stale and are not saved.
+ * <p/>
+ * File format: magic, version, algorithm name, number of entries, then for every entry
+ * path, size, last modified time in nanoseconds, file key, digest length and digest bytes.
+ * Strings are written as length and UTF-8 bytes, digest length is written as {@code int},
+ * since digest combined of several algorithms may be longer than 255 bytes.
+ * Methods are thread-safe.
+ */
+class HashCache {
+    private static final int MAGIC = 0x48434143;
+    private static final int VERSION = 3;
+    private static final int MAX_STRING = 1 << 24;
+    /**
+     * Coarsest timestamp granularity of common file systems, FAT stores modification time with 2 seconds precision.
+     */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final byte[] digest;
+        private volatile boolean used;
+
+        Entry(long size, long modified, String fileKey, byte[] digest, boolean used) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.digest = digest;
+            this.used = used;
+        }
+
+        Entry(BasicFileAttributes attrs, byte[] digest) {
+            this(attrs.size(), modified(attrs), String.valueOf(attrs.fileKey()), digest, true);
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == modified(attrs) && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+
+        private static long modified(BasicFileAttributes attrs) {
+            return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private final Path file;
+    private final String algorithm;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private HashCache(Path file, String algorithm) {
+        this.file = file;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Loads cache from {@code file}.
+     * Missing, damaged or made for another algorithm cache file gives empty cache,
+     * entries with digest of other than {@code length} bytes are skipped.
+     *
+     * @param file      cache file
+     * @param algorithm name of digest algorithm cached digests were computed with
+     * @param length    length of digest of the algorithm in bytes
+     * @return loaded cache
+     */
+    static HashCache load(Path file, String algorithm, int length) {
+        HashCache cache = new HashCache(file, algorithm);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !readString(in).equals(algorithm)) {
+                return cache;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                String path = readString(in);
+                long size = in.readLong();
+                long modified = in.readLong();
+                String fileKey = readString(in);
+                byte[] digest = new byte[readLength(in)];
+                in.readFully(digest);
+                if (digest.length == length) {
+                    cache.entries.put(path, new Entry(size, modified, fileKey, digest, false));
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            // First run
+        } catch (IOException e) {
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Returns cached digest of {@code path} if file wasn't changed since it was cached.
+     *
+     * @param path  file to look up
+     * @param attrs current attributes of file
+     * @return cached digest or {@code null}
+     */
+    byte[] get(Path path, BasicFileAttributes attrs) {
+        Entry entry = entries.get(key(path));
+        if (entry == null || !entry.matches(attrs)) {
+            return null;
+        }
+        entry.used = true;
+        return entry.digest;
+    }
+
+    /**
+     * Stores digest of {@code path}, unless file was modified less than {@link #RACY_WINDOW}
+     * before it started to be read.
+     *
+     * @param path    hashed file
+     * @param attrs   attributes of file read before it was hashed
+     * @param digest  digest of file
+     * @param started time file started to be read at, in nanoseconds since epoch,
+     *                or {@link Long#MAX_VALUE} if digest is known to match the attributes
+     */
+    void put(Path path, BasicFileAttributes attrs, byte[] digest, long started) {
+        if (Entry.modified(attrs) >= started - RACY_WINDOW) {
+            entries.remove(key(path));
+        } else {
+            entries.put(key(path), new Entry(attrs, Arrays.copyOf(digest, digest.length)));
+        }
+    }
+
+    /**
+     * Writes entries used since load to cache file.
+     * File is replaced atomically, so failed save keeps previous cache.
+     *
+     * @throws IOException if cache couldn't be written
+     */
+    void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, algorithm);
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.used) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.used) {
+                    writeString(out, e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    writeString(out, entry.fileKey);
+                    out.writeInt(entry.digest.length);
+                    out.write(entry.digest);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING) {
+            throw new IOException("Unexpected length " + length);
+        }
+        return length;
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,169 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Walks file trees on the calling thread and hashes found files on a fixed pool of worker threads.
+ * <p/>
+ * In ordered mode lines are written in the same order as sequential walk writes them.
+ * In unordered mode every line is written as soon as its file is hashed, so one big file
+ * doesn't hold back lines of the files found after it.
+ */
+class ParallelWalker {
+    private static final int PENDING_PER_THREAD = 64;
+
+    private static class Hashed extends FutureTask<byte[]> {
+        private final Path file;
+
+        Hashed(Path file, Callable<byte[]> hash) {
+            super(hash);
+            this.file = file;
+        }
+    }
+
+    private static final Hashed END = new Hashed(null, () -> null);
+
+    private final ResultWriter out;
+    private final boolean ordered;
+    private final ExecutorService workers;
+    private final ThreadLocal<FileHasher> hashers;
+    private final ThreadLocal<byte[]> digests;
+    private final BlockingQueue<Hashed> pending;
+    private final Semaphore inFlight;
+    private volatile IOException writeError;
+
+    /**
+     * Creates walker writing lines to {@code out}.
+     *
+     * @param out     writer for result lines
+     * @param threads number of hashing threads
+     * @param ordered whether lines have to be written in walk order
+     * @param hasher  hasher which settings are used by every worker
+     */
+    ParallelWalker(ResultWriter out, int threads, boolean ordered, FileHasher hasher) {
+        this.out = out;
+        this.ordered = ordered;
+        workers = Executors.newFixedThreadPool(threads);
+        hashers = ThreadLocal.withInitial(hasher::copy);
+        digests = ThreadLocal.withInitial(() -> new byte[hasher.length()]);
+        pending = new ArrayBlockingQueue<>(threads * PENDING_PER_THREAD);
+        inFlight = new Semaphore(threads * PENDING_PER_THREAD);
+    }
+
+    /**
+     * Walks every root and writes a line for every found file.
+     *
+     * @param roots   reader of roots to walk, one per line
+     * @param options walk options, see {@link RecursiveWalker#walk(BufferedReader, Set, FileVisitor)}
+     * @throws IOException if roots couldn't be read or result couldn't be written
+     */
+    void walk(BufferedReader roots, Set<FileVisitOption> options) throws IOException {
+        Thread writer = null;
+        if (ordered) {
+            writer = new Thread(this::drain);
+            writer.start();
+        }
+        SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                submit(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof FileSystemLoopException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (ordered) {
+                    Hashed failed = new Hashed(file, () -> null);
+                    failed.run();
+                    put(failed);
+                } else {
+                    write(null, file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        try {
+            RecursiveWalker.walk(roots, options, visitor);
+        } finally {
+            try {
+                if (ordered) {
+                    put(END);
+                    writer.join();
+                }
+                workers.shutdown();
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private void submit(Path file, BasicFileAttributes attrs) throws IOException {
+        if (ordered) {
+            Hashed hashed = new Hashed(file, () -> hashers.get().hash(file, attrs));
+            put(hashed);
+            workers.execute(hashed);
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        workers.execute(() -> {
+            try {
+                byte[] digest = digests.get();
+                write(hashers.get().hash(file, attrs, digest) ? digest : null, file);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void put(Hashed hashed) throws InterruptedIOException {
+        try {
+            pending.put(hashed);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void write(byte[] digest, Path file) {
+        if (writeError != null) {
+            return;
+        }
+        try {
+            out.write(digest, file);
+        } catch (IOException e) {
+            writeError = e;
+        }
+    }
+
+    private void drain() {
+        try {
+            Hashed hashed;
+            while ((hashed = pending.take()) != END) {
+                try {
+                    write(hashed.get(), hashed.file);
+                } catch (ExecutionException e) {
+                    writeError = new IOException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
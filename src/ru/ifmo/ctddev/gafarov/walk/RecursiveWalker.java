@@ -1,67 +1,190 @@
 package ru.ifmo.ctddev.gafarov.walk;
 
-import javax.xml.bind.DatatypeConverter;
+import javax.management.JMException;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 public class RecursiveWalker {
     private static class MD5FileVisitor extends SimpleFileVisitor<Path> {
-        private static final String errorCode = "00000000000000000000000000000000";
-        private MessageDigest digest;
-        private byte[] buffer;
-        BufferedWriter out;
+        private FileHasher hasher;
+        ResultWriter out;
+        private final byte[] digest;
 
-        public MD5FileVisitor(BufferedWriter out) throws NoSuchAlgorithmException {
-            digest = MessageDigest.getInstance("MD5");
+        public MD5FileVisitor(ResultWriter out, FileHasher hasher) {
+            this.hasher = hasher;
             this.out = out;
-            buffer = new byte[8096];
+            digest = new byte[hasher.length()];
         }
 
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            InputStream inputStream = Files.newInputStream(file);
-            int count = 0;
-            digest.reset();
-            while ((count = inputStream.read(buffer)) > 0) {
-                digest.update(buffer, 0, count);
-            }
-            out.write(DatatypeConverter.printHexBinary(digest.digest()) + " " + file + System.lineSeparator());
+            out.write(hasher.hash(file, attrs, digest) ? digest : null, file);
             return FileVisitResult.CONTINUE;
         }
 
         @Override
         public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-            out.write(errorCode + " " + file + System.lineSeparator());
+            if (!(exc instanceof FileSystemLoopException)) {
+                out.write(null, file);
+            }
             return FileVisitResult.CONTINUE;
         }
     }
 
+    /**
+     * Walks file tree of every root.
+     * With {@link FileVisitOption#FOLLOW_LINKS} symbolic links are followed, and directory that contains itself
+     * is passed to {@link FileVisitor#visitFileFailed} with {@link FileSystemLoopException} instead of being walked.
+     *
+     * @param roots   reader of roots to walk, one per line
+     * @param options walk options
+     * @param visitor visitor of every root
+     * @throws IOException if roots couldn't be read or visitor failed
+     */
+    static void walk(BufferedReader roots, Set<FileVisitOption> options, FileVisitor<Path> visitor) throws IOException {
+        String s;
+        while ((s = roots.readLine()) != null){
+            Files.walkFileTree(Paths.get(s), options, Integer.MAX_VALUE, visitor);
+        }
+    }
+
+    /**
+     * Writes MD5 hash of every file found under roots listed in input file.
+     * <p/>
+     * Options:
+     * <ul>
+     * <li>{@code -threads <n>} hash files on {@code n} worker threads, lines keep walk order</li>
+     * <li>{@code -unordered} with {@code -threads}, write every line as soon as its file is hashed</li>
+     * <li>{@code -mmap-threshold <bytes>} map files of at least given size to memory instead of reading them,
+     * 1 MiB by default</li>
+     * <li>{@code -algorithm <names>} comma separated digest algorithms computed in one pass, {@code MD5} by default,
+     * see {@link FileDigest#forName(String)}</li>
+     * <li>{@code -cache} keep digests in {@code <output file>.cache} and don't reread files
+     * which size, modification time and file key haven't changed since previous run</li>
+     * <li>{@code -duplicates} write only groups of files with equal contents, separated by empty lines,
+     * see {@link DuplicateFinder}</li>
+     * <li>{@code -inodes} read every file once, reusing its digest for hardlinks and overlapping roots</li>
+     * <li>{@code -follow-links} follow symbolic links, skipping directories that contain themselves</li>
+     * <li>{@code -progress <seconds>} print progress summary to {@code System.err} periodically and when walk ends</li>
+     * <li>{@code -jmx} expose progress as {@link WalkStatsMBean} while walking</li>
+     * </ul>
+     *
+     * @param args {input file, output file, options...}
+     */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: <input file> <output file>");
+        if (args == null || args.length < 2) {
+            System.out.println("Usage: <input file> <output file> [-threads <n> [-unordered]] [-mmap-threshold <bytes>] [-algorithm <names>] [-cache] [-duplicates] [-inodes] [-follow-links] [-progress <seconds>] [-jmx]");
             return;
         }
-        if (args == null || args[0] == null || args[1] == null){
+        if (args[0] == null || args[1] == null){
             System.out.println("args cant be null");
+            return;
         }
+        int threads = 0;
+        boolean ordered = true;
+        long mmapThreshold = FileHasher.DEFAULT_MMAP_THRESHOLD;
+        List<String> algorithms = FileHasher.DEFAULT_ALGORITHMS;
+        boolean cached = false;
+        boolean duplicates = false;
+        boolean inodes = false;
+        Set<FileVisitOption> options = EnumSet.noneOf(FileVisitOption.class);
+        long progress = 0;
+        boolean jmx = false;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-unordered":
+                        ordered = false;
+                        break;
+                    case "-mmap-threshold":
+                        mmapThreshold = Long.parseLong(args[++i]);
+                        break;
+                    case "-algorithm":
+                        algorithms = Arrays.asList(args[++i].split(","));
+                        break;
+                    case "-cache":
+                        cached = true;
+                        break;
+                    case "-duplicates":
+                        duplicates = true;
+                        break;
+                    case "-inodes":
+                        inodes = true;
+                        break;
+                    case "-follow-links":
+                        options.add(FileVisitOption.FOLLOW_LINKS);
+                        break;
+                    case "-progress":
+                        progress = Long.parseLong(args[++i]);
+                        break;
+                    case "-jmx":
+                        jmx = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (threads < 0) {
+                throw new IllegalArgumentException("-threads " + threads);
+            }
+            if (progress < 0) {
+                throw new IllegalArgumentException("-progress " + progress);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Wrong option " + e.getMessage());
+            return;
+        }
+        WalkStats stats = progress > 0 || jmx ? new WalkStats() : null;
         try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[0]), Charset.forName("UTF8"));
-             BufferedWriter writer = Files.newBufferedWriter(Paths.get(args[1]))) {
-            FileVisitor<Path> visitor = new MD5FileVisitor(writer);
-            String s;
-            while ((s = reader.readLine()) != null){
-                Files.walkFileTree(Paths.get(s), visitor);
+             Writer writer = new OutputStreamWriter(Files.newOutputStream(Paths.get(args[1])), StandardCharsets.UTF_8)) {
+            HashCache cache = cached ? HashCache.load(Paths.get(args[1] + ".cache"),
+                    FileHasher.name(algorithms), FileHasher.length(algorithms)) : null;
+            FileHasher hasher = new FileHasher(algorithms, mmapThreshold, cache, inodes, stats);
+            ResultWriter out = new ResultWriter(writer, hasher.parts(), stats);
+            if (jmx) {
+                stats.register();
+            }
+            if (progress > 0) {
+                stats.report(progress);
+            }
+            if (duplicates) {
+                new DuplicateFinder(out, hasher).walk(reader, options);
+            } else if (threads > 0) {
+                new ParallelWalker(out, threads, ordered, hasher).walk(reader, options);
+            } else {
+                walk(reader, options, new MD5FileVisitor(out, hasher));
+            }
+            out.flush();
+            if (cache != null) {
+                cache.save();
             }
         } catch (IOException e) {
             System.out.println("Coulnd't read from input file or write to output" + e.getMessage());
         } catch (NoSuchAlgorithmException e) {
-            System.out.println("No MD5 algo " + e.getMessage());
+            System.out.println("No such algorithm " + e.getMessage());
+        } catch (JMException e) {
+            System.out.println("Couldn't register stats MBean " + e.getMessage());
+        } finally {
+            if (stats != null) {
+                stats.close();
+                if (progress > 0) {
+                    System.err.println(stats);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,110 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+
+/**
+ * Writes result lines {@code <hex digest> <file>} to underlying writer.
+ * <p/>
+ * Digests are encoded to hex straight into a reused char buffer that is passed to writer only
+ * when it is full or flushed, so no strings are built for lines. Digest that consists of several
+ * parts is written as parts separated by spaces, missing digest is written as zeros of the same lengths.
+ * Lines with missing digest are counted as errors in {@link WalkStats}, if writer has them.
+ * Methods are thread-safe, every line is written as a whole.
+ */
+class ResultWriter implements Flushable {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer out;
+    private final int[] parts;
+    private final WalkStats stats;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int size;
+
+    /**
+     * Creates writer of digests made of parts of given lengths.
+     *
+     * @param out   writer to write lines to
+     * @param parts lengths of digest parts in bytes
+     * @param stats stats to count errors in, or {@code null}
+     */
+    ResultWriter(Writer out, int[] parts, WalkStats stats) {
+        this.out = out;
+        this.parts = parts;
+        this.stats = stats;
+    }
+
+    /**
+     * Writes line for file.
+     *
+     * @param digest digest of file, or {@code null} if file couldn't be hashed
+     * @param file   file
+     * @throws IOException if underlying writer fails
+     */
+    synchronized void write(byte[] digest, Path file) throws IOException {
+        if (digest == null && stats != null) {
+            stats.failed();
+        }
+        int offset = 0;
+        for (int part : parts) {
+            reserve(2 * part + 1);
+            if (offset > 0) {
+                buffer[size++] = ' ';
+            }
+            for (int i = offset; i < offset + part; i++) {
+                int b = digest == null ? 0 : digest[i];
+                buffer[size++] = HEX[(b >>> 4) & 0xF];
+                buffer[size++] = HEX[b & 0xF];
+            }
+            offset += part;
+        }
+        String name = file.toString();
+        reserve(1);
+        buffer[size++] = ' ';
+        if (name.length() > buffer.length - size) {
+            flushBuffer();
+            out.write(name);
+        } else {
+            name.getChars(0, name.length(), buffer, size);
+            size += name.length();
+        }
+        newLine();
+    }
+
+    /**
+     * Writes line separator, on its own it gives an empty line.
+     *
+     * @throws IOException if underlying writer fails
+     */
+    synchronized void newLine() throws IOException {
+        reserve(LINE_SEPARATOR.length);
+        System.arraycopy(LINE_SEPARATOR, 0, buffer, size, LINE_SEPARATOR.length);
+        size += LINE_SEPARATOR.length;
+    }
+
+    private void reserve(int length) throws IOException {
+        if (buffer.length - size < length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, size);
+        size = 0;
+    }
+
+    /**
+     * Passes buffered lines to underlying writer and flushes it.
+     *
+     * @throws IOException if underlying writer fails
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+}
@@ -0,0 +1,200 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of walk progress.
+ * <p/>
+ * Counters are updated by hashing threads without locking and can be read through JMX,
+ * see {@link #register()}, or printed to {@code System.err} periodically, see {@link #report(long)}.
+ * Walk without stats passes {@code null} instead and pays nothing.
+ */
+class WalkStats implements WalkStatsMBean {
+    private static final String OBJECT_NAME = "ru.ifmo.ctddev.gafarov.walk:type=WalkStats";
+
+    private final long start = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLongArray latency = new AtomicLongArray(64);
+    private volatile Path current;
+    private ScheduledExecutorService reporter;
+    private boolean registered;
+
+    /**
+     * Records that file is going to be hashed.
+     *
+     * @param file file
+     */
+    void started(Path file) {
+        current = file;
+    }
+
+    /**
+     * Records file which was read and hashed.
+     *
+     * @param size  number of bytes read
+     * @param nanos time of hashing
+     */
+    void hashed(long size, long nanos) {
+        files.increment();
+        bytes.add(size);
+        latency.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+    }
+
+    /**
+     * Records file which digest was taken from cache or from another path of the same file.
+     * Such files are not counted in latency histogram.
+     */
+    void reused() {
+        files.increment();
+        reused.increment();
+    }
+
+    /**
+     * Records bytes read apart from hashing whole files, such as samples of candidate duplicates.
+     *
+     * @param size number of bytes read
+     */
+    void read(long size) {
+        bytes.add(size);
+    }
+
+    /**
+     * Records file that couldn't be visited or read.
+     */
+    void failed() {
+        errors.increment();
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getReused() {
+        return reused.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return getFiles() / seconds();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return getBytes() / seconds();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        long[] histogram = new long[latency.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = latency.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public String getCurrentPath() {
+        return String.valueOf(current);
+    }
+
+    private double seconds() {
+        return Math.max(System.nanoTime() - start, 1) / 1e9;
+    }
+
+    /**
+     * Returns upper bound of latency of given fraction of files.
+     *
+     * @param fraction fraction of files, from 0 to 1
+     * @return latency in nanoseconds, rounded up to a power of two
+     */
+    long percentile(double fraction) {
+        long[] histogram = getLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > 0 && seen >= fraction * total) {
+                return 2L << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Makes stats visible through platform MBean server.
+     *
+     * @throws JMException if stats couldn't be registered
+     */
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(this, WalkStatsMBean.class), new ObjectName(OBJECT_NAME));
+        registered = true;
+    }
+
+    /**
+     * Starts printing summary to {@code System.err} every {@code seconds} seconds.
+     *
+     * @param seconds period of printing
+     */
+    void report(long seconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.err.println(this), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops periodic printing and unregisters stats from MBean server, if they were started.
+     */
+    void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        if (registered) {
+            registered = false;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (JMException ignored) {
+                // Already unregistered
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files %d (%.1f/s, %d reused), %.1f MiB (%.1f MiB/s), errors %d, "
+                        + "latency p50 <%d us p99 <%d us, at %s",
+                getFiles(), getFilesPerSecond(), getReused(), getBytes() / 1048576.0, getBytesPerSecond() / 1048576.0,
+                getErrors(),
+                percentile(0.5) / 1000, percentile(0.99) / 1000, getCurrentPath());
+    }
+}
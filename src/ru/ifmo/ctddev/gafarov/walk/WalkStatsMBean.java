@@ -0,0 +1,49 @@
+package ru.ifmo.ctddev.gafarov.walk;
+
+/**
+ * Management interface of walk progress, see {@link WalkStats}.
+ */
+public interface WalkStatsMBean {
+    /**
+     * @return number of files hashed, taken from cache or from another path of the same file
+     */
+    long getFiles();
+
+    /**
+     * @return number of files which digests were taken from cache or from another path of the same file
+     */
+    long getReused();
+
+    /**
+     * @return number of bytes read while hashing
+     */
+    long getBytes();
+
+    /**
+     * @return number of files that couldn't be visited or read
+     */
+    long getErrors();
+
+    /**
+     * @return average number of files per second since walk start
+     */
+    double getFilesPerSecond();
+
+    /**
+     * @return average number of bytes read per second since walk start
+     */
+    double getBytesPerSecond();
+
+    /**
+     * Returns histogram of file hashing latency, files which digests were reused are not counted.
+     * Element {@code i} is the number of files which reading took from {@code 2^i} to {@code 2^(i+1)} nanoseconds.
+     *
+     * @return latency histogram
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * @return file that was the last to start being hashed
+     */
+    String getCurrentPath();
+}